@@ -0,0 +1,65 @@
+package com.adeliosys.sample.benchmark;
+
+import com.adeliosys.sample.log.AsyncLogPipeline;
+import com.adeliosys.sample.log.LogEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the cost for a request thread to publish an access log event to the {@link AsyncLogPipeline},
+ * while the consumer thread formats and writes the events to a temporary file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncLogBenchmark {
+
+    @Param({"drop", "block"})
+    private String backpressure;
+
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("async-log-benchmark", ".log");
+        AsyncLogPipeline.getInstance().start(file.toString(), AsyncLogPipeline.Backpressure.valueOf(backpressure.toUpperCase()));
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException, IOException {
+        AsyncLogPipeline.getInstance().stop();
+        System.out.println("\n" + AsyncLogPipeline.getInstance().getReport());
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public void publish() {
+        AsyncLogPipeline pipeline = AsyncLogPipeline.getInstance();
+        LogEvent event = pipeline.claim(AsyncLogBenchmark::format);
+        if (event != null) {
+            event.setText(0, "GET")
+                    .setText(1, "/find-author")
+                    .setText(2, "name=Author%20A")
+                    .setValue(0, 200)
+                    .setValue(1, 3)
+                    .setValue(2, 1)
+                    .setValue(3, 15_000)
+                    .setValue(4, 0)
+                    .setValue(5, 0);
+            pipeline.publish(event);
+        }
+    }
+
+    private static void format(LogEvent event, StringBuilder builder) {
+        builder.append("Served ").append(event.getText(0)).append(" '").append(event.getText(1))
+                .append('?').append(event.getText(2)).append("' as ").append(event.getValue(0))
+                .append(" in ").append(event.getValue(1)).append(" ms with ").append(event.getValue(2)).append(" statements");
+    }
+}
@@ -0,0 +1,85 @@
+package com.adeliosys.sample.benchmark;
+
+import com.adeliosys.sample.CustomSessionEventListener;
+import com.adeliosys.sample.CustomStatementInspector;
+import com.adeliosys.sample.CustomStatisticsFactory;
+import com.adeliosys.sample.LoadRoleEventListeners;
+import com.adeliosys.sample.model.Author;
+import com.adeliosys.sample.model.Book;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.internal.StatisticalLoggingSessionEventListener;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.internal.StatisticsInitiator;
+
+import java.util.Map;
+
+/**
+ * Build Hibernate session factories for the Author and Book model on an in-memory H2 database,
+ * with the various monitoring options of the application.
+ */
+public final class BenchmarkSessionFactories {
+
+    private BenchmarkSessionFactories() {
+    }
+
+    /**
+     * @param listener   "none", "statistical" or "custom"
+     * @param statistics "off", "hibernate" or "custom"
+     */
+    public static SessionFactory build(String listener, String statistics, Map<String, Object> extraProperties) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:benchmark-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(Runtime.getRuntime().availableProcessors() * 2);
+
+        Configuration configuration = new Configuration()
+                .addAnnotatedClass(Author.class)
+                .addAnnotatedClass(Book.class);
+        configuration.getProperties().put(AvailableSettings.DATASOURCE, dataSource);
+        configuration.setProperty(AvailableSettings.HBM2DDL_AUTO, "create");
+        configuration.setProperty(AvailableSettings.LOG_SESSION_METRICS, "false");
+
+        switch (listener) {
+            case "none" -> {
+            }
+            case "statistical" -> configuration.setProperty(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER,
+                    StatisticalLoggingSessionEventListener.class.getName());
+            case "custom" -> {
+                configuration.setProperty(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, CustomSessionEventListener.class.getName());
+                configuration.setProperty(AvailableSettings.STATEMENT_INSPECTOR, CustomStatementInspector.class.getName());
+            }
+            default -> throw new IllegalArgumentException("Unknown listener '" + listener + "'");
+        }
+
+        switch (statistics) {
+            case "off" -> configuration.setProperty(AvailableSettings.GENERATE_STATISTICS, "false");
+            case "hibernate" -> configuration.setProperty(AvailableSettings.GENERATE_STATISTICS, "true");
+            case "custom" -> {
+                configuration.setProperty(AvailableSettings.GENERATE_STATISTICS, "true");
+                configuration.setProperty(StatisticsInitiator.STATS_BUILDER, CustomStatisticsFactory.class.getName());
+            }
+            default -> throw new IllegalArgumentException("Unknown statistics '" + statistics + "'");
+        }
+
+        configuration.getProperties().putAll(extraProperties);
+
+        SessionFactory sessionFactory = configuration.buildSessionFactory();
+        if (listener.equals("custom")) {
+            LoadRoleEventListeners.register(sessionFactory.unwrap(SessionFactoryImplementor.class));
+        }
+        return sessionFactory;
+    }
+
+    /**
+     * Close a session factory and its connection pool.
+     */
+    public static void close(SessionFactory sessionFactory) {
+        Object dataSource = sessionFactory.getProperties().get(AvailableSettings.DATASOURCE);
+        sessionFactory.close();
+        if (dataSource instanceof HikariDataSource hikariDataSource) {
+            hikariDataSource.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.adeliosys.sample.benchmark;
+
+import com.adeliosys.sample.journal.StatisticsJournal;
+import com.adeliosys.sample.metrics.Histogram;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measure the cost of appending a sample to the {@link StatisticsJournal}, with 10 histograms of which a given number
+ * of buckets changed since the previous sample. The segments are small, so the rolling of the segments is included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    private static final int HISTOGRAM_COUNT = 10;
+
+    private static final int VALUE_COUNT = 50;
+
+    @Param({"0", "20", "200"})
+    private int changedBuckets;
+
+    private Path directory;
+
+    private StatisticsJournal journal;
+
+    private final long[] values = new long[VALUE_COUNT];
+
+    private final long[][] histogramCounts = new long[HISTOGRAM_COUNT][Histogram.BUCKET_COUNT];
+
+    private int nextBucket;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        String[] labels = new String[VALUE_COUNT];
+        boolean[] gauges = new boolean[VALUE_COUNT];
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            labels[i] = "value" + i;
+            gauges[i] = i % 10 == 0;
+        }
+        String[] histogramLabels = new String[HISTOGRAM_COUNT];
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            histogramLabels[i] = "histogram" + i;
+        }
+        journal = new StatisticsJournal(directory, 1024 * 1024, 2, labels, gauges, histogramLabels, Histogram.BUCKET_COUNT);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.out.println("\n" + journal.getReport());
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[i]++;
+        }
+        for (int i = 0; i < changedBuckets; i++) {
+            histogramCounts[i % HISTOGRAM_COUNT][nextBucket]++;
+            nextBucket = (nextBucket + 7) % 300;
+        }
+        journal.append(System.currentTimeMillis(), values, histogramCounts);
+    }
+}
@@ -0,0 +1,60 @@
+package com.adeliosys.sample.benchmark;
+
+import com.adeliosys.sample.model.Author;
+import com.adeliosys.sample.model.Book;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the per session overhead of the session event listeners and of the statistics.
+ * Each operation opens a session, finds an author by name in a transaction, then closes the session.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionOverheadBenchmark {
+
+    @Param({"none", "statistical", "custom"})
+    private String listener;
+
+    @Param({"off", "hibernate", "custom"})
+    private String statistics;
+
+    private SessionFactory sessionFactory;
+
+    @Setup
+    public void setUp() {
+        sessionFactory = BenchmarkSessionFactories.build(listener, statistics, Map.of());
+        sessionFactory.inTransaction(session -> {
+            session.persist(new Author("Author A").addBooks(new Book("Book A1")));
+            session.persist(new Author("Author B").addBooks(new Book("Book B1"), new Book("Book B2")));
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSessionFactories.close(sessionFactory);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<Author> findAuthor() {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            List<Author> authors = session.createQuery("from Author where name = :name", Author.class)
+                    .setParameter("name", "Author A")
+                    .getResultList();
+            transaction.commit();
+            return authors;
+        }
+    }
+}
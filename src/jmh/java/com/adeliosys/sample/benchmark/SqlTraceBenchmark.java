@@ -0,0 +1,86 @@
+package com.adeliosys.sample.benchmark;
+
+import com.adeliosys.sample.jdbc.TracingDataSource;
+import com.adeliosys.sample.metrics.SqlTraceRegistry;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the overhead of the {@link TracingDataSource} on an in-memory H2 database: a prepared query with two bind
+ * parameters reading 10 rows of two columns, and a batch of 10 inserts, with and without the tracing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlTraceBenchmark {
+
+    @Param({"off", "on"})
+    private String tracing;
+
+    private HikariDataSource hikariDataSource;
+
+    private DataSource dataSource;
+
+    private long nextId = 1_000;
+
+    @Setup
+    public void setUp() throws SQLException {
+        hikariDataSource = new HikariDataSource();
+        hikariDataSource.setJdbcUrl("jdbc:h2:mem:sql-trace-benchmark-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource = "on".equals(tracing) ? TracingDataSource.wrap(hikariDataSource) : hikariDataSource;
+
+        try (Connection connection = hikariDataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("create table author (id bigint primary key, name varchar(255))");
+            for (int i = 0; i < 100; i++) {
+                statement.execute("insert into author values (" + i + ", 'Author " + i + "')");
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("\n" + SqlTraceRegistry.getInstance().getReport(2));
+        SqlTraceRegistry.getInstance().clear();
+        hikariDataSource.close();
+    }
+
+    @Benchmark
+    public void query(Blackhole blackhole) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("select id, name from author where id >= ? and id < ?")) {
+            statement.setLong(1, 10);
+            statement.setLong(2, 20);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    blackhole.consume(resultSet.getLong(1));
+                    blackhole.consume(resultSet.getString(2));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void batchInsert() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("insert into author values (?, ?)")) {
+            for (int i = 0; i < 10; i++) {
+                statement.setLong(1, nextId++);
+                statement.setString(2, "Author");
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
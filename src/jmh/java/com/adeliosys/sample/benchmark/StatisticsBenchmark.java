@@ -0,0 +1,60 @@
+package com.adeliosys.sample.benchmark;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.spi.StatisticsImplementor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the throughput of the statistics updates done by Hibernate for each executed query,
+ * with the Hibernate statistics and with the custom ones, when all the threads execute the same few queries.
+ * <p>
+ * The contention effects only show with several cores, on a single core this measures the cost of an update.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsBenchmark {
+
+    private static final String[] QUERIES = {
+            "select a from Author a where a.name = :name",
+            "select a from Author a where a.id > :after order by a.id",
+            "select b from Book b where b.author.id = :id",
+            "select count(a) from Author a"};
+
+    @Param({"hibernate", "custom"})
+    private String statistics;
+
+    private SessionFactory sessionFactory;
+
+    private StatisticsImplementor statisticsImplementor;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private int index;
+    }
+
+    @Setup
+    public void setUp() {
+        sessionFactory = BenchmarkSessionFactories.build("none", statistics, Map.of());
+        statisticsImplementor = (StatisticsImplementor) sessionFactory.getStatistics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSessionFactories.close(sessionFactory);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void queryExecuted(ThreadState state) {
+        int index = state.index++;
+        statisticsImplementor.queryExecuted(QUERIES[index & (QUERIES.length - 1)], index & 15, index & 7);
+    }
+}
@@ -0,0 +1,59 @@
+package com.adeliosys.sample.benchmark;
+
+import com.adeliosys.sample.HibernateStatisticsUtil;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.stat.spi.StatisticsImplementor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the cost of the Hibernate statistics report for various numbers of registered queries.
+ * The report is written to a null writer, to exclude the I/O.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatsReportBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int queryCount;
+
+    @Param({"HTML", "JSON", "PROMETHEUS"})
+    private HibernateStatisticsUtil.Format format;
+
+    private SessionFactory sessionFactory;
+
+    private final PrintWriter out = new PrintWriter(Writer.nullWriter());
+
+    @Setup
+    public void setUp() {
+        sessionFactory = BenchmarkSessionFactories.build("none", "custom",
+                Map.of(AvailableSettings.QUERY_STATISTICS_MAX_SIZE, String.valueOf(queryCount)));
+
+        // Register distinct queries, as done by code that inlines literal values
+        StatisticsImplementor statistics = (StatisticsImplementor) sessionFactory.getStatistics();
+        for (int i = 0; i < queryCount; i++) {
+            statistics.queryExecuted("select a from Author a where a.id = " + i, i % 10, i % 100);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSessionFactories.close(sessionFactory);
+    }
+
+    @Benchmark
+    public void writeStatsReport() throws IOException {
+        HibernateStatisticsUtil.writeStatsReport(sessionFactory, format, HibernateStatisticsUtil.QuerySort.TOTAL_TIME,
+                100, false, out);
+    }
+}
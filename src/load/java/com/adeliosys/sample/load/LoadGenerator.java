@@ -0,0 +1,251 @@
+package com.adeliosys.sample.load;
+
+import com.adeliosys.sample.metrics.Histogram;
+import com.adeliosys.sample.metrics.HistogramSnapshot;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open model load generator for the application endpoints.
+ * <p>
+ * Requests are scheduled at a fixed rate and sent by a bounded number of concurrent clients.
+ * The latency is measured from the scheduled time of each request rather than from its actual sending time,
+ * so that the time spent waiting for a free client is included (i.e. the coordinated omission is corrected).
+ * <p>
+ * Arguments are "key=value" pairs:
+ * <ul>
+ *     <li>url: the application URL, default is http://localhost:8080</li>
+ *     <li>rate: the target number of requests per second, default is 100</li>
+ *     <li>duration: the duration of the test in seconds, default is 30</li>
+ *     <li>clients: the maximum number of concurrent requests, default is 50</li>
+ *     <li>mix: the weighted operations, default is "list-authors:40,find-author:40,count:19,reset:1"</li>
+ *     <li>output: the directory of the reports, default is "target/load-test"</li>
+ *     <li>seed: the seed of the operations random selection, default is 1</li>
+ * </ul>
+ * At the end, a summary is written to the output directory, along with the Hibernate and datasource stats.
+ */
+public class LoadGenerator {
+
+    private static final Map<String, String> PATHS = Map.of(
+            "list-authors", "/list-authors",
+            "find-author", "/find-author?name=Author%20A",
+            "count", "/count",
+            "reset", "/reset");
+
+    private final String url;
+
+    private final int rate;
+
+    private final int duration;
+
+    private final int clients;
+
+    private final Path output;
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    private final Random random;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(executor)
+            .build();
+
+    private final Histogram overallLatencies = new Histogram();
+
+    private final LongAdder overallErrors = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid argument '" + arg + "', expecting key=value");
+            }
+            arguments.put(parts[0], parts[1]);
+        }
+
+        new LoadGenerator(arguments).run();
+    }
+
+    public LoadGenerator(Map<String, String> arguments) {
+        url = arguments.getOrDefault("url", "http://localhost:8080");
+        rate = Integer.parseInt(arguments.getOrDefault("rate", "100"));
+        duration = Integer.parseInt(arguments.getOrDefault("duration", "30"));
+        clients = Integer.parseInt(arguments.getOrDefault("clients", "50"));
+        output = Path.of(arguments.getOrDefault("output", "target/load-test"));
+        random = new Random(Long.parseLong(arguments.getOrDefault("seed", "1")));
+
+        for (String item : arguments.getOrDefault("mix", "list-authors:40,find-author:40,count:19,reset:1").split(",")) {
+            String[] parts = item.split(":");
+            String path = PATHS.get(parts[0]);
+            if (path == null) {
+                throw new IllegalArgumentException("Unknown operation '" + parts[0] + "', expecting one of " + PATHS.keySet());
+            }
+            operations.add(new Operation(parts[0], path, Integer.parseInt(parts[1])));
+        }
+    }
+
+    public void run() throws InterruptedException, IOException {
+        System.out.printf("Sending %d requests/s during %d s with %d clients to %s%n", rate, duration, clients, url);
+
+        int totalWeight = operations.stream().mapToInt(Operation::getWeight).sum();
+        long requestCount = (long) rate * duration;
+        long interval = 1_000_000_000L / rate;
+        Semaphore permits = new Semaphore(clients);
+
+        long start = System.nanoTime();
+        for (long i = 0; i < requestCount; i++) {
+            long scheduledTime = start + i * interval;
+            long delay = scheduledTime - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            Operation operation = pickOperation(totalWeight);
+            permits.acquire();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url + operation.getPath()))
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, throwable) -> {
+                        boolean error = throwable != null || response.statusCode() >= 400;
+                        operation.record(System.nanoTime() - scheduledTime, error);
+                        overallLatencies.record(System.nanoTime() - scheduledTime);
+                        if (error) {
+                            overallErrors.increment();
+                        }
+                        permits.release();
+                    });
+        }
+
+        // Wait for the pending requests
+        permits.acquire(clients);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        try {
+            writeReports(elapsedSeconds);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Operation pickOperation(int totalWeight) {
+        int value = random.nextInt(totalWeight);
+        for (Operation operation : operations) {
+            value -= operation.getWeight();
+            if (value < 0) {
+                return operation;
+            }
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    private void writeReports(double elapsedSeconds) throws IOException, InterruptedException {
+        StringWriter buffer = new StringWriter();
+        PrintWriter summary = new PrintWriter(buffer);
+        summary.printf("Target rate %d requests/s during %d s with %d clients to %s, elapsed %.1f s%n", rate, duration, clients, url, elapsedSeconds);
+        summary.printf("%-14s %9s %7s %10s %10s %10s %10s %10s %10s%n",
+                "Operation", "Requests", "Errors", "Req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "Max ms");
+        for (Operation operation : operations) {
+            writeSummaryLine(summary, operation.getName(), operation.getLatencies().snapshot(), operation.getErrors().sum(), elapsedSeconds);
+        }
+        writeSummaryLine(summary, "all", overallLatencies.snapshot(), overallErrors.sum(), elapsedSeconds);
+        summary.flush();
+        System.out.print(buffer);
+
+        Path directory = output.resolve(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+        Files.createDirectories(directory);
+        Files.writeString(directory.resolve("summary.txt"), buffer.toString());
+        Files.writeString(directory.resolve("hibernate-stats.json"), get("/hibernate-stats?format=json"));
+        Files.writeString(directory.resolve("datasource-stats.json"), get("/datasource-stats"));
+        System.out.println("Reports written to " + directory.toAbsolutePath());
+    }
+
+    private void writeSummaryLine(PrintWriter summary, String name, HistogramSnapshot latencies, long errors, double elapsedSeconds) {
+        summary.printf("%-14s %9d %7d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                name,
+                latencies.getCount(),
+                errors,
+                latencies.getCount() / elapsedSeconds,
+                latencies.getValueAtPercentile(50) / 1e6,
+                latencies.getValueAtPercentile(90) / 1e6,
+                latencies.getValueAtPercentile(99) / 1e6,
+                latencies.getValueAtPercentile(99.9) / 1e6,
+                latencies.getMax() / 1e6);
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + path)).timeout(Duration.ofSeconds(30)).build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private static class Operation {
+
+        private final String name;
+
+        private final String path;
+
+        private final int weight;
+
+        private final Histogram latencies = new Histogram();
+
+        private final LongAdder errors = new LongAdder();
+
+        Operation(String name, String path, int weight) {
+            this.name = name;
+            this.path = path;
+            this.weight = weight;
+        }
+
+        void record(long latency, boolean error) {
+            latencies.record(latency);
+            if (error) {
+                errors.increment();
+            }
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        int getWeight() {
+            return weight;
+        }
+
+        Histogram getLatencies() {
+            return latencies;
+        }
+
+        LongAdder getErrors() {
+            return errors;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.adeliosys.sample;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.adeliosys.sample.log.AsyncLogPipeline;
+import com.adeliosys.sample.log.LogEvent;
+import com.adeliosys.sample.metrics.RequestMetrics;
+import com.adeliosys.sample.metrics.RouteLatencyRegistry;
+import com.adeliosys.sample.metrics.RouteMetricsRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import jakarta.servlet.*;
@@ -9,10 +13,16 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
+/**
+ * Record the route metrics and latency of each HTTP request and log it through the {@link AsyncLogPipeline}.
+ * When enabled, the persistence cost of the request is also returned in a Server-Timing header,
+ * see {@link ServerTimingResponse}.
+ */
 @Component
 public class AccessLogFilter implements Filter {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLogFilter.class);
+    @Value("${monitoring.server-timing.enabled:false}")
+    private boolean serverTimingEnabled;
 
     @Override
     public void init(FilterConfig filterConfig) {
@@ -23,21 +33,66 @@ public class AccessLogFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
         HttpServletResponse response = (HttpServletResponse) servletResponse;
 
-        long duration = -System.currentTimeMillis();
+        long start = System.nanoTime();
+        RequestMetrics requestMetrics = RequestMetrics.start(request);
+
+        ServerTimingResponse serverTimingResponse = null;
+        if (serverTimingEnabled) {
+            serverTimingResponse = new ServerTimingResponse(response, requestMetrics);
+            servletResponse = serverTimingResponse;
+        }
 
         try {
             filterChain.doFilter(servletRequest, servletResponse);
         } finally {
-            duration += System.currentTimeMillis();
+            if (serverTimingResponse != null) {
+                serverTimingResponse.updateHeader();
+            }
 
-            // Get the complete URL
-            String url = request.getRequestURI();
-            String queryString = request.getQueryString();
-            if (queryString != null) {
-                url += '?' + queryString;
+            long duration = System.nanoTime() - start;
+            String route = requestMetrics.getRoute();
+            RouteMetricsRegistry.getInstance().record(route, duration, requestMetrics);
+            RouteLatencyRegistry.getInstance().record(route, response.getStatus(), duration);
+            requestMetrics.end();
+
+            AsyncLogPipeline pipeline = AsyncLogPipeline.getInstance();
+            LogEvent event = pipeline.claim(AccessLogFilter::format);
+            if (event != null) {
+                try {
+                    event.setText(0, request.getMethod())
+                            .setText(1, request.getRequestURI())
+                            .setText(2, request.getQueryString())
+                            .setValue(0, response.getStatus())
+                            .setValue(1, duration)
+                            .setValue(2, requestMetrics.getStatementCount())
+                            .setValue(3, requestMetrics.getConnectionWaitTime())
+                            .setValue(4, requestMetrics.getFlushTime())
+                            .setValue(5, requestMetrics.getFlushEntityCount());
+                } catch (RuntimeException e) {
+                    // Release the claimed slot, otherwise the pipeline stalls
+                    pipeline.cancel(event);
+                    throw e;
+                }
+                pipeline.publish(event);
             }
+        }
+    }
 
-            LOGGER.info("Served {} '{}' as {} in {} ms", request.getMethod(), url, response.getStatus(), duration);
+    /**
+     * Format the access log published by {@link #doFilter}, called by the consumer thread of the pipeline.
+     */
+    private static void format(LogEvent event, StringBuilder builder) {
+        builder.append("Served ").append(event.getText(0)).append(" '").append(event.getText(1));
+        if (event.getText(2) != null) {
+            builder.append('?').append(event.getText(2));
         }
+        long duration = event.getValue(1) / 10_000;
+        builder.append("' as ").append(event.getValue(0))
+                .append(" in ").append(duration / 100).append('.').append(duration / 10 % 10).append(duration % 10)
+                .append(" ms with ")
+                .append(event.getValue(2)).append(" statements, ")
+                .append(event.getValue(3) / 1000).append(" μs connection wait, ")
+                .append(event.getValue(4) / 1000).append(" μs flush for ")
+                .append(event.getValue(5)).append(" entities");
     }
 }
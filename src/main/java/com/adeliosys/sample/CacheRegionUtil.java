@@ -0,0 +1,138 @@
+package com.adeliosys.sample;
+
+import com.github.benmanes.caffeine.jcache.Expirable;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gather the statistics of the second level and query cache regions.
+ * <p>
+ * The hits, misses and puts come from the Hibernate statistics. When the regions are stored in Caffeine caches
+ * through JCache, the size, evictions and memory estimate come from Caffeine, else they are reported as -1.
+ */
+public class CacheRegionUtil {
+
+    /**
+     * Maximum number of entries serialized per region to estimate the memory footprint.
+     */
+    private static final int MEMORY_SAMPLE_SIZE = 100;
+
+    public record RegionEntry(String name, long hits, long misses, long puts, long size, long evictions, long memoryEstimate) {
+
+        /**
+         * Return the hit ratio in percent, or -1 if the region was never read.
+         */
+        public double getHitRatio() {
+            long gets = hits + misses;
+            return gets > 0 ? 100.0 * hits / gets : -1;
+        }
+    }
+
+    /**
+     * Return the statistics of the cache regions, sorted by name.
+     */
+    public static List<RegionEntry> getRegions(SessionFactoryImplementor sessionFactory, Statistics stats) {
+        String[] regionNames = stats.getSecondLevelCacheRegionNames();
+        Arrays.sort(regionNames);
+
+        CacheManager cacheManager = getCacheManager(sessionFactory.getCache().getRegionFactory());
+
+        List<RegionEntry> regions = new ArrayList<>(regionNames.length);
+        for (String regionName : regionNames) {
+            CacheRegionStatistics regionStats = stats.getCacheRegionStatistics(regionName);
+            if (regionStats == null) {
+                continue;
+            }
+
+            com.github.benmanes.caffeine.cache.Cache<?, ?> caffeineCache = getCaffeineCache(cacheManager, regionName);
+            long size = -1;
+            long evictions = -1;
+            long memoryEstimate = -1;
+            if (caffeineCache != null) {
+                size = caffeineCache.estimatedSize();
+                evictions = caffeineCache.stats().evictionCount();
+                memoryEstimate = estimateMemory(caffeineCache.asMap(), size);
+            }
+
+            regions.add(new RegionEntry(regionName, regionStats.getHitCount(), regionStats.getMissCount(),
+                    regionStats.getPutCount(), size, evictions, memoryEstimate));
+        }
+        return regions;
+    }
+
+    private static CacheManager getCacheManager(RegionFactory regionFactory) {
+        return regionFactory instanceof JCacheRegionFactory jcacheRegionFactory ? jcacheRegionFactory.getCacheManager() : null;
+    }
+
+    private static com.github.benmanes.caffeine.cache.Cache<?, ?> getCaffeineCache(CacheManager cacheManager, String regionName) {
+        if (cacheManager == null) {
+            return null;
+        }
+        Cache<?, ?> cache = cacheManager.getCache(regionName);
+        if (cache == null) {
+            return null;
+        }
+        try {
+            return cache.unwrap(com.github.benmanes.caffeine.cache.Cache.class);
+        } catch (IllegalArgumentException e) {
+            // Not a Caffeine cache
+            return null;
+        }
+    }
+
+    /**
+     * Estimate the memory footprint of a cache, from the serialized size of a sample of entries.
+     * The serialization stream is shared by the sampled entries, so that the class descriptors are counted once.
+     */
+    private static long estimateMemory(Map<?, ?> cache, long size) {
+        if (size <= 0) {
+            return 0;
+        }
+
+        CountingOutputStream counter = new CountingOutputStream();
+        int sampledCount = 0;
+        try (ObjectOutputStream out = new ObjectOutputStream(counter)) {
+            Iterator<? extends Map.Entry<?, ?>> iterator = cache.entrySet().iterator();
+            while (iterator.hasNext() && sampledCount < MEMORY_SAMPLE_SIZE) {
+                Map.Entry<?, ?> entry = iterator.next();
+                out.writeObject(entry.getKey());
+                // The JCache values are wrapped with their expiration time
+                out.writeObject(entry.getValue() instanceof Expirable<?> expirable ? expirable.get() : entry.getValue());
+                sampledCount++;
+            }
+        } catch (IOException e) {
+            // Some entry is not serializable
+            return -1;
+        }
+        return sampledCount > 0 ? counter.count * size / sampledCount : 0;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
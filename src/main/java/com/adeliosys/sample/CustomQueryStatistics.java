@@ -0,0 +1,169 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.CompactHistogram;
+import com.adeliosys.sample.metrics.SqlFingerprint;
+import org.hibernate.stat.internal.QueryStatisticsImpl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free statistics of a query, with histograms of the execution time (in ms, as reported by Hibernate)
+ * and of the number of returned rows.
+ * <p>
+ * Unlike the Hibernate implementation, that acquires a shared read lock and updates contended atomic longs
+ * for each execution, this one only uses striped counters. It extends the Hibernate implementation only to be
+ * returned by {@link CustomStatistics#getQueryStatistics(String)}, and overrides all its public methods.
+ */
+public class CustomQueryStatistics extends QueryStatisticsImpl {
+
+    private final long fingerprintHash;
+
+    private final LongAdder executionCount = new LongAdder();
+
+    private final CompactHistogram executionTimes = new CompactHistogram();
+
+    private final CompactHistogram executionRows = new CompactHistogram();
+
+    private final LongAdder cacheHitCount = new LongAdder();
+
+    private final LongAdder cacheMissCount = new LongAdder();
+
+    private final LongAdder cachePutCount = new LongAdder();
+
+    private final LongAdder planCacheHitCount = new LongAdder();
+
+    private final LongAdder planCacheMissCount = new LongAdder();
+
+    private final LongAdder planCompilationTotalMicroseconds = new LongAdder();
+
+    CustomQueryStatistics(String query) {
+        super(query);
+        fingerprintHash = SqlFingerprint.hash(query);
+    }
+
+    /**
+     * Return the hash of the query fingerprint, computed once rather than for each execution.
+     */
+    long getFingerprintHash() {
+        return fingerprintHash;
+    }
+
+    @Override
+    public void executed(long rows, long time) {
+        executionCount.increment();
+        executionTimes.record(time);
+        executionRows.record(rows);
+    }
+
+    void cacheHit() {
+        cacheHitCount.increment();
+    }
+
+    void cacheMiss() {
+        cacheMissCount.increment();
+    }
+
+    void cachePut() {
+        cachePutCount.increment();
+    }
+
+    void planCacheHit() {
+        planCacheHitCount.increment();
+    }
+
+    void planCacheMiss() {
+        planCacheMissCount.increment();
+    }
+
+    void compiled(long microseconds) {
+        planCompilationTotalMicroseconds.add(microseconds);
+    }
+
+    public CompactHistogram getExecutionTimes() {
+        return executionTimes;
+    }
+
+    public CompactHistogram getExecutionRows() {
+        return executionRows;
+    }
+
+    @Override
+    public long getExecutionCount() {
+        return executionCount.sum();
+    }
+
+    @Override
+    public long getExecutionRowCount() {
+        return executionRows.getSum();
+    }
+
+    @Override
+    public long getExecutionAvgTime() {
+        long count = getExecutionCount();
+        return count > 0 ? getExecutionTotalTime() / count : 0;
+    }
+
+    @Override
+    public double getExecutionAvgTimeAsDouble() {
+        long count = getExecutionCount();
+        return count > 0 ? (double) getExecutionTotalTime() / count : 0;
+    }
+
+    @Override
+    public long getExecutionMaxTime() {
+        return executionTimes.getMax();
+    }
+
+    @Override
+    public long getExecutionMinTime() {
+        return executionTimes.getMin();
+    }
+
+    @Override
+    public long getExecutionTotalTime() {
+        return executionTimes.getSum();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return cacheMissCount.sum();
+    }
+
+    @Override
+    public long getCachePutCount() {
+        return cachePutCount.sum();
+    }
+
+    @Override
+    public long getPlanCacheHitCount() {
+        return planCacheHitCount.sum();
+    }
+
+    @Override
+    public long getPlanCacheMissCount() {
+        return planCacheMissCount.sum();
+    }
+
+    @Override
+    public long getPlanCompilationTotalMicroseconds() {
+        return planCompilationTotalMicroseconds.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CustomQueryStatistics[executionCount=" + getExecutionCount()
+                + ",executionRowCount=" + getExecutionRowCount()
+                + ",executionAvgTime=" + getExecutionAvgTime()
+                + ",executionMaxTime=" + getExecutionMaxTime()
+                + ",executionMinTime=" + getExecutionMinTime()
+                + ",cacheHitCount=" + getCacheHitCount()
+                + ",cacheMissCount=" + getCacheMissCount()
+                + ",cachePutCount=" + getCachePutCount()
+                + ']';
+    }
+}
@@ -1,5 +1,23 @@
 package com.adeliosys.sample;
 
+import com.adeliosys.sample.jfr.BatchExecuteEvent;
+import com.adeliosys.sample.jfr.CacheGetEvent;
+import com.adeliosys.sample.jfr.CachePutEvent;
+import com.adeliosys.sample.jfr.ConnectionAcquisitionEvent;
+import com.adeliosys.sample.jfr.ConnectionReleaseEvent;
+import com.adeliosys.sample.jfr.FlushEvent;
+import com.adeliosys.sample.jfr.PartialFlushEvent;
+import com.adeliosys.sample.jfr.StatementExecuteEvent;
+import com.adeliosys.sample.jfr.StatementPrepareEvent;
+import com.adeliosys.sample.log.AsyncLogPipeline;
+import com.adeliosys.sample.log.LogEvent;
+import com.adeliosys.sample.metrics.ConnectionHoldRegistry;
+import com.adeliosys.sample.metrics.NPlusOneRegistry;
+import com.adeliosys.sample.metrics.RequestMetrics;
+import com.adeliosys.sample.metrics.SessionLogPolicy;
+import com.adeliosys.sample.metrics.SessionMetricsRegistry;
+import com.adeliosys.sample.metrics.SessionPhase;
+import com.adeliosys.sample.metrics.StatementTracker;
 import org.hibernate.BaseSessionEventListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,12 +25,36 @@ import org.slf4j.LoggerFactory;
 /**
  * This custom implementation is inspired by org.hibernate.engine.internal.StatisticalLoggingSessionEventListener
  * and is used to log Hibernate session metrics in a more developer friendly way.
+ * Only the sessions selected by the {@link SessionLogPolicy} are logged, through the {@link AsyncLogPipeline}.
+ * The metrics are also merged into the process wide {@link SessionMetricsRegistry} and into the
+ * {@link RequestMetrics} of the current HTTP request when the session ends.
+ * The executed statements are tracked to detect N+1 selects, see {@link NPlusOneRegistry}.
+ * Finally, each phase emits a JFR event when a recording enables it, see {@link com.adeliosys.sample.jfr.SessionPhaseEvent}.
  */
 @SuppressWarnings("unused")
 public class CustomSessionEventListener extends BaseSessionEventListener {
 
     protected static final Logger LOGGER = LoggerFactory.getLogger(CustomSessionEventListener.class);
 
+    /**
+     * The listener of the session currently used by each thread, used by {@link CustomStatementInspector}.
+     */
+    private static final ThreadLocal<CustomSessionEventListener> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The listener of the enclosing session, if any, restored when this session ends.
+     */
+    private final CustomSessionEventListener previous;
+
+    /**
+     * Whether this session was selected by the head sampling of the {@link SessionLogPolicy}.
+     */
+    private final boolean sampled;
+
+    private StatementTracker statementTracker;
+
+    private boolean statementTrackingDisabled;
+
     private int jdbcConnectionAcquisitionCount;
     private long jdbcConnectionAcquisitionTime;
 
@@ -47,12 +89,101 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
     private long partialFlushCollectionCount;
     private long partialFlushTime;
 
+    public CustomSessionEventListener() {
+        // Hibernate creates the listener when the session is opened, by the thread that will use it
+        previous = CURRENT.get();
+        CURRENT.set(this);
+        sampled = SessionLogPolicy.getInstance().sample();
+    }
+
+    /**
+     * Return the listener of the session currently used by the current thread, if any.
+     */
+    public static CustomSessionEventListener current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Called by {@link CustomStatementInspector} for each statement prepared by the session.
+     */
+    public void statementInspected(String sql) {
+        if (statementTrackingDisabled) {
+            return;
+        }
+        if (statementTracker == null) {
+            statementTracker = new StatementTracker();
+        }
+        statementTracker.record(sql);
+    }
+
+    /**
+     * Stop tracking the statements of this session, for bulk operations that repeat the same statements on purpose.
+     */
+    public void disableStatementTracking() {
+        statementTrackingDisabled = true;
+        statementTracker = null;
+    }
+
+    /**
+     * Return the listener of the enclosing session, still open by the current thread, if any.
+     */
+    public CustomSessionEventListener getPrevious() {
+        return previous;
+    }
+
+    // The getters below return the live counters of the session, used to report the persistence cost of a request
+    // before its sessions end, see ServerTimingResponse. Times are in nanoseconds.
+
+    public long getJdbcConnectionAcquisitionTime() {
+        return jdbcConnectionAcquisitionTime;
+    }
+
+    public long getJdbcPrepareStatementTime() {
+        return jdbcPrepareStatementTime;
+    }
+
+    public long getJdbcExecuteStatementTime() {
+        return jdbcExecuteStatementTime;
+    }
+
+    /**
+     * Return the time spent in the flushes, including the partial ones.
+     */
+    public long getFlushTime() {
+        return flushTime + partialFlushTime;
+    }
+
+    /**
+     * Return the number of entities processed by the flushes, including the partial ones.
+     */
+    public long getFlushEntityCount() {
+        return flushEntityCount + partialFlushEntityCount;
+    }
+
+    public int getJdbcExecuteStatementCount() {
+        return jdbcExecuteStatementCount;
+    }
+
+    public int getJdbcExecuteBatchCount() {
+        return jdbcExecuteBatchCount;
+    }
+
+    public long getJdbcExecuteBatchTime() {
+        return jdbcExecuteBatchTime;
+    }
+
     private long jdbcConnectionAcquisitionStart = -1;
 
+    private ConnectionAcquisitionEvent connectionAcquisitionEvent;
+
     @Override
     public void jdbcConnectionAcquisitionStart() {
         assert jdbcConnectionAcquisitionStart < 0 : "Nested calls to jdbcConnectionAcquisitionStart";
         jdbcConnectionAcquisitionStart = System.nanoTime();
+        if (ConnectionAcquisitionEvent.TYPE.isEnabled()) {
+            connectionAcquisitionEvent = new ConnectionAcquisitionEvent();
+            connectionAcquisitionEvent.begin();
+        }
     }
 
     @Override
@@ -63,14 +194,37 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         jdbcConnectionAcquisitionCount++;
         jdbcConnectionAcquisitionTime += (System.nanoTime() - jdbcConnectionAcquisitionStart);
         jdbcConnectionAcquisitionStart = -1;
+
+        RequestMetrics requestMetrics = RequestMetrics.current();
+        connectionHolder = ConnectionHoldRegistry.getInstance().acquired(requestMetrics != null ? requestMetrics.getRoute() : null);
+
+        if (connectionAcquisitionEvent != null) {
+            connectionAcquisitionEvent.commit();
+            connectionAcquisitionEvent = null;
+        }
     }
 
+    /**
+     * The current connection of the session, used to measure how long it is held.
+     */
+    private ConnectionHoldRegistry.Holder connectionHolder;
+
     private long jdbcConnectionReleaseStart = -1;
 
+    private ConnectionReleaseEvent connectionReleaseEvent;
+
     @Override
     public void jdbcConnectionReleaseStart() {
         assert jdbcConnectionReleaseStart < 0 : "Nested calls to jdbcConnectionReleaseStart";
         jdbcConnectionReleaseStart = System.nanoTime();
+        if (connectionHolder != null) {
+            ConnectionHoldRegistry.getInstance().released(connectionHolder);
+            connectionHolder = null;
+        }
+        if (ConnectionReleaseEvent.TYPE.isEnabled()) {
+            connectionReleaseEvent = new ConnectionReleaseEvent();
+            connectionReleaseEvent.begin();
+        }
     }
 
     @Override
@@ -78,17 +232,31 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         assert jdbcConnectionReleaseStart > 0 :
                 "Unexpected call to jdbcConnectionReleaseEnd; expecting jdbcConnectionReleaseStart";
 
+        long time = System.nanoTime() - jdbcConnectionReleaseStart;
         jdbcConnectionReleaseCount++;
-        jdbcConnectionReleaseTime += (System.nanoTime() - jdbcConnectionReleaseStart);
+        jdbcConnectionReleaseTime += time;
         jdbcConnectionReleaseStart = -1;
+        // Hibernate ends the session before releasing its connection, so each release is recorded directly
+        SessionMetricsRegistry.getInstance().record(SessionPhase.CONNECTION_RELEASE, 1, time);
+
+        if (connectionReleaseEvent != null) {
+            connectionReleaseEvent.commit();
+            connectionReleaseEvent = null;
+        }
     }
 
     private long jdbcPrepStart = -1;
 
+    private StatementPrepareEvent statementPrepareEvent;
+
     @Override
     public void jdbcPrepareStatementStart() {
         assert jdbcPrepStart < 0 : "Nested calls to jdbcPrepareStatementStart";
         jdbcPrepStart = System.nanoTime();
+        if (StatementPrepareEvent.TYPE.isEnabled()) {
+            statementPrepareEvent = new StatementPrepareEvent();
+            statementPrepareEvent.begin();
+        }
     }
 
     @Override
@@ -98,14 +266,25 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         jdbcPrepareStatementCount++;
         jdbcPrepareStatementTime += (System.nanoTime() - jdbcPrepStart);
         jdbcPrepStart = -1;
+
+        if (statementPrepareEvent != null) {
+            statementPrepareEvent.commit();
+            statementPrepareEvent = null;
+        }
     }
 
     private long jdbcExecutionStart = -1;
 
+    private StatementExecuteEvent statementExecuteEvent;
+
     @Override
     public void jdbcExecuteStatementStart() {
         assert jdbcExecutionStart < 0 : "Nested calls to jdbcExecuteStatementStart";
         jdbcExecutionStart = System.nanoTime();
+        if (StatementExecuteEvent.TYPE.isEnabled()) {
+            statementExecuteEvent = new StatementExecuteEvent();
+            statementExecuteEvent.begin();
+        }
     }
 
     @Override
@@ -115,14 +294,25 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         jdbcExecuteStatementCount++;
         jdbcExecuteStatementTime += (System.nanoTime() - jdbcExecutionStart);
         jdbcExecutionStart = -1;
+
+        if (statementExecuteEvent != null) {
+            statementExecuteEvent.commit();
+            statementExecuteEvent = null;
+        }
     }
 
     private long jdbcBatchExecutionStart = -1;
 
+    private BatchExecuteEvent batchExecuteEvent;
+
     @Override
     public void jdbcExecuteBatchStart() {
         assert jdbcBatchExecutionStart < 0 : "Nested calls to jdbcExecuteBatchStart";
         jdbcBatchExecutionStart = System.nanoTime();
+        if (BatchExecuteEvent.TYPE.isEnabled()) {
+            batchExecuteEvent = new BatchExecuteEvent();
+            batchExecuteEvent.begin();
+        }
     }
 
     @Override
@@ -132,14 +322,25 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         jdbcExecuteBatchCount++;
         jdbcExecuteBatchTime += (System.nanoTime() - jdbcBatchExecutionStart);
         jdbcBatchExecutionStart = -1;
+
+        if (batchExecuteEvent != null) {
+            batchExecuteEvent.commit();
+            batchExecuteEvent = null;
+        }
     }
 
     private long cachePutStart = -1;
 
+    private CachePutEvent cachePutEvent;
+
     @Override
     public void cachePutStart() {
         assert cachePutStart < 0 : "Nested calls to cachePutStart";
         cachePutStart = System.nanoTime();
+        if (CachePutEvent.TYPE.isEnabled()) {
+            cachePutEvent = new CachePutEvent();
+            cachePutEvent.begin();
+        }
     }
 
     @Override
@@ -149,14 +350,25 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         cachePutCount++;
         cachePutTime += (System.nanoTime() - cachePutStart);
         cachePutStart = -1;
+
+        if (cachePutEvent != null) {
+            cachePutEvent.commit();
+            cachePutEvent = null;
+        }
     }
 
     private long cacheGetStart = -1;
 
+    private CacheGetEvent cacheGetEvent;
+
     @Override
     public void cacheGetStart() {
         assert cacheGetStart < 0 : "Nested calls to cacheGetStart";
         cacheGetStart = System.nanoTime();
+        if (CacheGetEvent.TYPE.isEnabled()) {
+            cacheGetEvent = new CacheGetEvent();
+            cacheGetEvent.begin();
+        }
     }
 
     @Override
@@ -171,14 +383,26 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
             cacheMissTime += (System.nanoTime() - cacheGetStart);
         }
         cacheGetStart = -1;
+
+        if (cacheGetEvent != null) {
+            cacheGetEvent.hit = hit;
+            cacheGetEvent.commit();
+            cacheGetEvent = null;
+        }
     }
 
     private long flushStart = -1;
 
+    private FlushEvent flushEvent;
+
     @Override
     public void flushStart() {
         assert flushStart < 0 : "Nested calls to flushStart";
         flushStart = System.nanoTime();
+        if (FlushEvent.TYPE.isEnabled()) {
+            flushEvent = new FlushEvent();
+            flushEvent.begin();
+        }
     }
 
     @Override
@@ -190,14 +414,27 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         flushCollectionCount += numberOfCollections;
         flushTime += (System.nanoTime() - flushStart);
         flushStart = -1;
+
+        if (flushEvent != null) {
+            flushEvent.entityCount = numberOfEntities;
+            flushEvent.collectionCount = numberOfCollections;
+            flushEvent.commit();
+            flushEvent = null;
+        }
     }
 
     private long partialFlushStart = -1;
 
+    private PartialFlushEvent partialFlushEvent;
+
     @Override
     public void partialFlushStart() {
         assert partialFlushStart < 0 : "Nested calls to partialFlushStart";
         partialFlushStart = System.nanoTime();
+        if (PartialFlushEvent.TYPE.isEnabled()) {
+            partialFlushEvent = new PartialFlushEvent();
+            partialFlushEvent.begin();
+        }
     }
 
     @Override
@@ -209,47 +446,136 @@ public class CustomSessionEventListener extends BaseSessionEventListener {
         partialFlushCollectionCount += numberOfCollections;
         partialFlushTime += (System.nanoTime() - partialFlushStart);
         partialFlushStart = -1;
+
+        if (partialFlushEvent != null) {
+            partialFlushEvent.entityCount = numberOfEntities;
+            partialFlushEvent.collectionCount = numberOfCollections;
+            partialFlushEvent.commit();
+            partialFlushEvent = null;
+        }
     }
 
     @Override
     public void end() {
-        if (!LOGGER.isDebugEnabled()) {
-            return;
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
         }
 
-        // Log metrics only for session that were actually used
+        // Record and log metrics only for session that were actually used
         if (jdbcConnectionAcquisitionCount <= 0) {
             return;
         }
 
-        LOGGER.debug("Session metrics:\n"
-                        + "    connections  : acquired {} ({} μs)\n"
-                        + "    statements   : prepared {} ({} μs), executed {} ({} μs)\n"
-                        + "    JDBC batches : executed {} ({} μs)\n"
-                        + "    cache        : {} puts ({} μs), {} hits ({} μs), {} misses ({} μs)\n"
-                        + "    flushes      : executed {} ({} μs) for {} entities and {} collections, executed {} partials ({} μs) for {} entities and {} collections",
-                jdbcConnectionAcquisitionCount,
-                jdbcConnectionAcquisitionTime / 1000,
-                jdbcPrepareStatementCount,
-                jdbcPrepareStatementTime / 1000,
-                jdbcExecuteStatementCount,
-                jdbcExecuteStatementTime / 1000,
-                jdbcExecuteBatchCount,
-                jdbcExecuteBatchTime / 1000,
-                cachePutCount,
-                cachePutTime,
-                cacheHitCount,
-                cacheHitTime,
-                cacheMissCount,
-                cacheMissTime,
-                flushCount,
-                flushTime / 1000,
-                flushEntityCount,
-                flushCollectionCount,
-                partialFlushCount,
-                partialFlushTime / 1000,
-                partialFlushEntityCount,
-                partialFlushCollectionCount
-        );
+        recordMetrics();
+        logMetrics();
+    }
+
+    private void logMetrics() {
+        SessionLogPolicy policy = SessionLogPolicy.getInstance();
+        int reasons = policy.getReasons(sampled, jdbcExecuteStatementCount + jdbcExecuteBatchCount,
+                jdbcPrepareStatementTime + jdbcExecuteStatementTime + jdbcExecuteBatchTime,
+                flushEntityCount + partialFlushEntityCount);
+        if (reasons == 0) {
+            return;
+        }
+
+        RequestMetrics requestMetrics = RequestMetrics.current();
+        String route = requestMetrics != null ? requestMetrics.getRoute() : null;
+        if (!policy.tryAcquire(route)) {
+            return;
+        }
+
+        AsyncLogPipeline pipeline = AsyncLogPipeline.getInstance();
+        LogEvent event = pipeline.claim(CustomSessionEventListener::formatMetrics);
+        if (event == null) {
+            return;
+        }
+        try {
+            event.setText(0, route)
+                    .setValue(0, reasons)
+                    .setValue(1, jdbcConnectionAcquisitionCount)
+                    .setValue(2, jdbcConnectionAcquisitionTime)
+                    .setValue(3, jdbcPrepareStatementCount)
+                    .setValue(4, jdbcPrepareStatementTime)
+                    .setValue(5, jdbcExecuteStatementCount)
+                    .setValue(6, jdbcExecuteStatementTime)
+                    .setValue(7, jdbcExecuteBatchCount)
+                    .setValue(8, jdbcExecuteBatchTime)
+                    .setValue(9, cachePutCount)
+                    .setValue(10, cachePutTime)
+                    .setValue(11, cacheHitCount)
+                    .setValue(12, cacheHitTime)
+                    .setValue(13, cacheMissCount)
+                    .setValue(14, cacheMissTime)
+                    .setValue(15, flushCount)
+                    .setValue(16, flushTime)
+                    .setValue(17, flushEntityCount)
+                    .setValue(18, flushCollectionCount)
+                    .setValue(19, partialFlushCount)
+                    .setValue(20, partialFlushTime)
+                    .setValue(21, partialFlushEntityCount)
+                    .setValue(22, partialFlushCollectionCount);
+        } catch (RuntimeException e) {
+            // Release the claimed slot, otherwise the pipeline stalls
+            pipeline.cancel(event);
+            throw e;
+        }
+        pipeline.publish(event);
+    }
+
+    /**
+     * Format the session metrics published by {@link #logMetrics()}, times are converted to microseconds.
+     */
+    private static void formatMetrics(LogEvent event, StringBuilder builder) {
+        builder.append("Session metrics for route '").append(event.getText(0))
+                .append("' (").append(SessionLogPolicy.describeReasons((int) event.getValue(0))).append("):\n")
+                .append("    connections  : acquired ").append(event.getValue(1))
+                .append(" (").append(event.getValue(2) / 1000).append(" μs)\n")
+                .append("    statements   : prepared ").append(event.getValue(3))
+                .append(" (").append(event.getValue(4) / 1000).append(" μs), executed ").append(event.getValue(5))
+                .append(" (").append(event.getValue(6) / 1000).append(" μs)\n")
+                .append("    JDBC batches : executed ").append(event.getValue(7))
+                .append(" (").append(event.getValue(8) / 1000).append(" μs)\n")
+                .append("    cache        : ").append(event.getValue(9)).append(" puts (").append(event.getValue(10) / 1000)
+                .append(" μs), ").append(event.getValue(11)).append(" hits (").append(event.getValue(12) / 1000)
+                .append(" μs), ").append(event.getValue(13)).append(" misses (").append(event.getValue(14) / 1000).append(" μs)\n")
+                .append("    flushes      : executed ").append(event.getValue(15)).append(" (").append(event.getValue(16) / 1000)
+                .append(" μs) for ").append(event.getValue(17)).append(" entities and ").append(event.getValue(18))
+                .append(" collections, executed ").append(event.getValue(19)).append(" partials (")
+                .append(event.getValue(20) / 1000).append(" μs) for ").append(event.getValue(21))
+                .append(" entities and ").append(event.getValue(22)).append(" collections");
+    }
+
+    private void recordMetrics() {
+        SessionMetricsRegistry registry = SessionMetricsRegistry.getInstance();
+        registry.recordSession();
+        registry.record(SessionPhase.CONNECTION_ACQUISITION, jdbcConnectionAcquisitionCount, jdbcConnectionAcquisitionTime);
+        registry.record(SessionPhase.STATEMENT_PREPARE, jdbcPrepareStatementCount, jdbcPrepareStatementTime);
+        registry.record(SessionPhase.STATEMENT_EXECUTE, jdbcExecuteStatementCount, jdbcExecuteStatementTime);
+        registry.record(SessionPhase.BATCH_EXECUTE, jdbcExecuteBatchCount, jdbcExecuteBatchTime);
+        registry.record(SessionPhase.CACHE_PUT, cachePutCount, cachePutTime);
+        registry.record(SessionPhase.CACHE_HIT, cacheHitCount, cacheHitTime);
+        registry.record(SessionPhase.CACHE_MISS, cacheMissCount, cacheMissTime);
+        registry.record(SessionPhase.FLUSH, flushCount, flushTime);
+        registry.record(SessionPhase.PARTIAL_FLUSH, partialFlushCount, partialFlushTime);
+        registry.recordFlushedItems(flushEntityCount + partialFlushEntityCount, flushCollectionCount + partialFlushCollectionCount);
+
+        RequestMetrics requestMetrics = RequestMetrics.current();
+        if (requestMetrics != null) {
+            requestMetrics.addSession(jdbcExecuteStatementCount, jdbcExecuteBatchCount, jdbcConnectionAcquisitionTime,
+                    jdbcPrepareStatementTime, jdbcExecuteStatementTime + jdbcExecuteBatchTime, flushTime + partialFlushTime,
+                    flushEntityCount + partialFlushEntityCount);
+        }
+
+        if (statementTracker != null) {
+            String route = requestMetrics != null ? requestMetrics.getRoute() : null;
+            int offenderCount = NPlusOneRegistry.getInstance().check(statementTracker, route);
+            if (offenderCount > 0) {
+                LOGGER.warn("Session executed {} statement(s) more than {} times, possible N+1 selects for route '{}', see /n-plus-one-stats",
+                        offenderCount, NPlusOneRegistry.getInstance().getThreshold(), route);
+            }
+        }
     }
 }
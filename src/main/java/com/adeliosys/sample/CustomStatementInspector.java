@@ -0,0 +1,19 @@
+package com.adeliosys.sample;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Forward each SQL statement to the session event listener of the current session, to detect N+1 selects.
+ * The statements are returned unchanged.
+ */
+public class CustomStatementInspector implements StatementInspector {
+
+    @Override
+    public String inspect(String sql) {
+        CustomSessionEventListener listener = CustomSessionEventListener.current();
+        if (listener != null) {
+            listener.statementInspected(sql);
+        }
+        return sql;
+    }
+}
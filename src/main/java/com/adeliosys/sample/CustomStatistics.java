@@ -0,0 +1,214 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.CompactHistogram;
+import com.adeliosys.sample.metrics.StripedHeavyHittersSketch;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.stat.Statistics;
+import org.hibernate.stat.internal.StatisticsImpl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hibernate statistics that also aggregate the query statistics per fingerprint, i.e. independently of
+ * the literal values, while tracking only the most executed fingerprints to keep the memory usage flat.
+ * <p>
+ * The per query statistics are replaced by lock-free {@link CustomQueryStatistics} that also provide
+ * execution time and rows histograms, available through {@link #getCustomQueryStatistics()}. They are also served
+ * by the standard {@link #getQueries()} and {@link #getQueryStatistics(String)}, for the other statistics consumers
+ * such as JMX or Micrometer. Once "hibernate.statistics.query_max_size" queries are tracked,
+ * new queries are only counted in the global and fingerprint statistics.
+ * <p>
+ * The load times of the entities and the initialization times of the collections (in ns) are recorded
+ * in histograms, using the timings of {@link LoadRoleEventListeners}.
+ */
+public class CustomStatistics extends StatisticsImpl {
+
+    private static final int QUERY_FINGERPRINT_CAPACITY = 200;
+
+    private final StripedHeavyHittersSketch queryFingerprints = new StripedHeavyHittersSketch(QUERY_FINGERPRINT_CAPACITY);
+
+    private final int maxQueryCount;
+
+    private final Map<String, CustomQueryStatistics> queryStatistics = new ConcurrentHashMap<>();
+
+    private final Map<String, CompactHistogram> entityLoadTimes = new ConcurrentHashMap<>();
+
+    private final Map<String, CompactHistogram> collectionLoadTimes = new ConcurrentHashMap<>();
+
+    private volatile String queryExecutionMaxTimeQueryString;
+
+    public CustomStatistics(SessionFactoryImplementor sessionFactory) {
+        super(sessionFactory);
+        maxQueryCount = ConfigurationHelper.getInt(AvailableSettings.QUERY_STATISTICS_MAX_SIZE,
+                sessionFactory.getProperties(), Statistics.DEFAULT_QUERY_STATISTICS_MAX_SIZE);
+    }
+
+    public StripedHeavyHittersSketch getQueryFingerprints() {
+        return queryFingerprints;
+    }
+
+    /**
+     * Return the statistics of the tracked queries, by query string.
+     */
+    public Map<String, CustomQueryStatistics> getCustomQueryStatistics() {
+        return Collections.unmodifiableMap(queryStatistics);
+    }
+
+    @Override
+    public String[] getQueries() {
+        return queryStatistics.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Return the statistics of a query, or empty statistics if the query is not tracked and the maximum number
+     * of tracked queries is reached.
+     */
+    @Override
+    public CustomQueryStatistics getQueryStatistics(String queryString) {
+        CustomQueryStatistics stats = getOrCreateQueryStatistics(queryString);
+        return stats != null ? stats : new CustomQueryStatistics(queryString);
+    }
+
+    /**
+     * Return the load time histograms, by entity name.
+     */
+    public Map<String, CompactHistogram> getEntityLoadTimes() {
+        return Collections.unmodifiableMap(entityLoadTimes);
+    }
+
+    /**
+     * Return the initialization time histograms, by collection role.
+     */
+    public Map<String, CompactHistogram> getCollectionLoadTimes() {
+        return Collections.unmodifiableMap(collectionLoadTimes);
+    }
+
+    /**
+     * Return the statistics of a query, or null if the query is not tracked and the maximum number
+     * of tracked queries is reached.
+     */
+    private CustomQueryStatistics getOrCreateQueryStatistics(String hql) {
+        CustomQueryStatistics stats = queryStatistics.get(hql);
+        if (stats == null && queryStatistics.size() < maxQueryCount) {
+            stats = queryStatistics.computeIfAbsent(hql, CustomQueryStatistics::new);
+        }
+        return stats;
+    }
+
+    @Override
+    public void queryExecuted(String hql, int rows, long time) {
+        // Update the global statistics only, the Hibernate per query statistics use a lock
+        long previousMaxTime = getQueryExecutionMaxTime();
+        super.queryExecuted(null, rows, time);
+        if (hql == null) {
+            return;
+        }
+        if (time > previousMaxTime) {
+            queryExecutionMaxTimeQueryString = hql;
+        }
+
+        CustomQueryStatistics stats = getOrCreateQueryStatistics(hql);
+        if (stats != null) {
+            stats.executed(rows, time);
+            queryFingerprints.record(stats.getFingerprintHash(), hql, time, rows);
+        } else {
+            queryFingerprints.record(hql, time, rows);
+        }
+    }
+
+    @Override
+    public String getQueryExecutionMaxTimeQueryString() {
+        return queryExecutionMaxTimeQueryString;
+    }
+
+    @Override
+    public void queryCacheHit(String hql, String regionName) {
+        super.queryCacheHit(null, regionName);
+        CustomQueryStatistics stats = hql != null ? getOrCreateQueryStatistics(hql) : null;
+        if (stats != null) {
+            stats.cacheHit();
+        }
+    }
+
+    @Override
+    public void queryCacheMiss(String hql, String regionName) {
+        super.queryCacheMiss(null, regionName);
+        CustomQueryStatistics stats = hql != null ? getOrCreateQueryStatistics(hql) : null;
+        if (stats != null) {
+            stats.cacheMiss();
+        }
+    }
+
+    @Override
+    public void queryCachePut(String hql, String regionName) {
+        super.queryCachePut(null, regionName);
+        CustomQueryStatistics stats = hql != null ? getOrCreateQueryStatistics(hql) : null;
+        if (stats != null) {
+            stats.cachePut();
+        }
+    }
+
+    @Override
+    public void queryPlanCacheHit(String hql) {
+        super.queryPlanCacheHit(null);
+        CustomQueryStatistics stats = hql != null ? getOrCreateQueryStatistics(hql) : null;
+        if (stats != null) {
+            stats.planCacheHit();
+        }
+    }
+
+    @Override
+    public void queryPlanCacheMiss(String hql) {
+        super.queryPlanCacheMiss(null);
+        CustomQueryStatistics stats = hql != null ? getOrCreateQueryStatistics(hql) : null;
+        if (stats != null) {
+            stats.planCacheMiss();
+        }
+    }
+
+    @Override
+    public void queryCompiled(String hql, long microseconds) {
+        super.queryCompiled(null, microseconds);
+        CustomQueryStatistics stats = hql != null ? getOrCreateQueryStatistics(hql) : null;
+        if (stats != null) {
+            stats.compiled(microseconds);
+        }
+    }
+
+    /**
+     * Record the time spent by a session to load an entity, including the cache lookups.
+     */
+    public void entityLoaded(String entityName, long time) {
+        if (isStatisticsEnabled() && entityName != null) {
+            getOrCreateHistogram(entityLoadTimes, entityName).record(time);
+        }
+    }
+
+    /**
+     * Record the time spent by a session to initialize a collection, including the cache lookups.
+     */
+    public void collectionLoaded(String role, long time) {
+        if (isStatisticsEnabled() && role != null) {
+            getOrCreateHistogram(collectionLoadTimes, role).record(time);
+        }
+    }
+
+    private static CompactHistogram getOrCreateHistogram(Map<String, CompactHistogram> histograms, String name) {
+        CompactHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new CompactHistogram());
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        queryFingerprints.clear();
+        queryStatistics.clear();
+        entityLoadTimes.clear();
+        collectionLoadTimes.clear();
+        queryExecutionMaxTimeQueryString = null;
+    }
+}
@@ -0,0 +1,16 @@
+package com.adeliosys.sample;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.spi.StatisticsFactory;
+import org.hibernate.stat.spi.StatisticsImplementor;
+
+/**
+ * Used by Hibernate to create the {@link CustomStatistics}, see the "hibernate.stats.factory" property.
+ */
+public class CustomStatisticsFactory implements StatisticsFactory {
+
+    @Override
+    public StatisticsImplementor buildStatistics(SessionFactoryImplementor sessionFactory) {
+        return new CustomStatistics(sessionFactory);
+    }
+}
@@ -0,0 +1,93 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.EntityCountRegistry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hibernate event listeners that maintain the {@link EntityCountRegistry} from the inserts and deletes,
+ * once their transaction is committed. The changes of rolled back transactions are ignored.
+ * <p>
+ * The deltas are collected in a single per transaction counter applied by one after completion process,
+ * rather than by post-commit listeners that would keep an action, and the entity it references, per insert
+ * or delete until the commit, defeating the flush and clear of the bulk loads.
+ */
+public final class EntityCountListeners {
+
+    private static final ThreadLocal<TransactionDeltas> DELTAS = new ThreadLocal<>();
+
+    private EntityCountListeners() {
+    }
+
+    /**
+     * Register the listeners in a session factory.
+     */
+    public static void register(SessionFactoryImplementor sessionFactory) {
+        EventListenerRegistry eventListenerRegistry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        Listener listener = new Listener();
+        eventListenerRegistry.appendListeners(EventType.POST_INSERT, listener);
+        eventListenerRegistry.appendListeners(EventType.POST_DELETE, listener);
+    }
+
+    private static void add(EventSource session, String entityName, long delta) {
+        TransactionDeltas deltas = DELTAS.get();
+        if (deltas == null || deltas.session != session) {
+            deltas = new TransactionDeltas(session);
+            DELTAS.set(deltas);
+            session.getActionQueue().registerProcess(deltas::afterCompletion);
+        }
+        deltas.counts.merge(entityName, delta, Long::sum);
+    }
+
+    /**
+     * The count deltas of the current transaction of a session, by entity name.
+     */
+    private static class TransactionDeltas {
+
+        private final EventSource session;
+
+        private final Map<String, Long> counts = new HashMap<>();
+
+        private TransactionDeltas(EventSource session) {
+            this.session = session;
+        }
+
+        private void afterCompletion(boolean success, SharedSessionContractImplementor session) {
+            if (DELTAS.get() == this) {
+                DELTAS.remove();
+            }
+            if (success) {
+                counts.forEach(EntityCountRegistry.getInstance()::add);
+            }
+        }
+    }
+
+    public static class Listener implements PostInsertEventListener, PostDeleteEventListener {
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return false;
+        }
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            add(event.getSession(), event.getPersister().getEntityName(), 1);
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            add(event.getSession(), event.getPersister().getEntityName(), -1);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.EntityCountRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.metamodel.EntityType;
+
+/**
+ * Seed the {@link EntityCountRegistry} when the application is ready, then periodically reconcile it
+ * with the row counts of the database.
+ * <p>
+ * The reconciliation uses a read-write transaction, so that it counts the rows of the primary database
+ * rather than of a possibly lagging replica.
+ */
+@Component
+public class EntityCountReconciler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityCountReconciler.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void seed() {
+        reconcile();
+        LOGGER.info("Seeded the entity counts {}", EntityCountRegistry.getInstance().getReport().get("counts"));
+    }
+
+    @Scheduled(initialDelayString = "${monitoring.entity-counts.reconcile-interval:60000}",
+            fixedDelayString = "${monitoring.entity-counts.reconcile-interval:60000}")
+    @Transactional
+    public void reconcile() {
+        EntityCountRegistry registry = EntityCountRegistry.getInstance();
+        for (EntityType<?> entityType : entityManager.getMetamodel().getEntities()) {
+            String entityName = entityType.getJavaType().getName();
+            long stamp = registry.getReconciliationStamp(entityName);
+            long rowCount = entityManager.createQuery("select count(e) from " + entityType.getName() + " e", Long.class)
+                    .getSingleResult();
+            registry.reconcile(entityName, stamp, rowCount);
+        }
+        registry.reconciled();
+    }
+}
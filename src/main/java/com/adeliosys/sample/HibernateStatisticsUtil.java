@@ -1,114 +1,288 @@
 package com.adeliosys.sample;
 
+import com.adeliosys.sample.metrics.CompactHistogram;
+import com.adeliosys.sample.metrics.HeavyHittersSketch;
+import com.adeliosys.sample.metrics.HistogramSnapshot;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.stat.CollectionStatistics;
 import org.hibernate.stat.EntityStatistics;
 import org.hibernate.stat.QueryStatistics;
 import org.hibernate.stat.Statistics;
 
 import jakarta.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
 
 public class HibernateStatisticsUtil {
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    /**
+     * The supported report formats.
+     */
+    public enum Format {
+        HTML("text/html;charset=UTF-8"),
+        JSON("application/json;charset=UTF-8"),
+        PROMETHEUS("text/plain;version=0.0.4;charset=UTF-8");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown report format '" + name + "'");
+        }
+    }
+
+    /**
+     * The supported query sort orders, the most expensive queries come first.
+     */
+    public enum QuerySort {
+        TOTAL_TIME("totalTime", QueryStatistics::getExecutionTotalTime, HeavyHittersSketch.Entry::totalTime),
+        AVG_TIME("avgTime", QueryStatistics::getExecutionAvgTime, HeavyHittersSketch.Entry::getAvgTime),
+        EXECUTIONS("executions", QueryStatistics::getExecutionCount, HeavyHittersSketch.Entry::executions),
+        ROWS("rows", QueryStatistics::getExecutionRowCount, HeavyHittersSketch.Entry::rows);
+
+        private final String name;
+
+        private final ToLongFunction<QueryStatistics> key;
+
+        private final ToLongFunction<HeavyHittersSketch.Entry> fingerprintKey;
+
+        QuerySort(String name, ToLongFunction<QueryStatistics> key, ToLongFunction<HeavyHittersSketch.Entry> fingerprintKey) {
+            this.name = name;
+            this.key = key;
+            this.fingerprintKey = fingerprintKey;
+        }
+
+        public static QuerySort fromName(String name) {
+            for (QuerySort sort : values()) {
+                if (sort.name.equalsIgnoreCase(name)) {
+                    return sort;
+                }
+            }
+            throw new IllegalArgumentException("Unknown query sort '" + name + "'");
+        }
+    }
+
+    private record QueryEntry(String query, QueryStatistics stats, long key) {
+    }
+
     /**
-     * Generate a custom HTML stats report for the Hibernate session factory from a given entity manager factory.
+     * Write a custom stats report for the Hibernate session factory from a given entity manager factory.
+     * The report is written directly to the output and only the top queries are included.
      */
-    public static String generateStatsReport(EntityManagerFactory entityManagerFactory, boolean clear) {
+    public static void writeStatsReport(EntityManagerFactory entityManagerFactory, Format format, QuerySort sort, int top,
+                                        boolean clear, PrintWriter out) throws IOException {
+        if (top < 1) {
+            throw new IllegalArgumentException("The top must be positive");
+        }
+
         SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
         Statistics stats = sessionFactory.getStatistics();
 
-        StringBuilder buffer = new StringBuilder(32768);
+        List<QueryEntry> queries = getTopQueries(stats, sort, top);
+        List<HeavyHittersSketch.Entry> fingerprints = getTopFingerprints(stats, sort, top);
+        List<CacheRegionUtil.RegionEntry> regions = CacheRegionUtil.getRegions(sessionFactory.unwrap(SessionFactoryImplementor.class), stats);
 
-        // Add the various parts of the stats file
-        writeHeader(buffer);
-        writeGeneralStats(stats, buffer);
-        writeEntityStats(stats, buffer);
-        writeCollectionStats(stats, buffer);
-        writeQueryStats(stats, buffer);
+        switch (format) {
+            case HTML -> writeHtmlReport(stats, regions, queries, fingerprints, sort, top, out);
+            case JSON -> writeJsonReport(stats, regions, queries, fingerprints, out);
+            case PROMETHEUS -> writePrometheusReport(stats, regions, queries, fingerprints, out);
+        }
+        out.flush();
 
         if (clear) {
             stats.clear();
         }
+    }
+
+    /**
+     * Return the top queries for a given sort order, using a bounded min-heap rather than sorting all queries.
+     */
+    private static List<QueryEntry> getTopQueries(Statistics stats, QuerySort sort, int top) {
+        PriorityQueue<QueryEntry> heap = new PriorityQueue<>(Math.min(top, 1024) + 1, Comparator.comparingLong(QueryEntry::key));
+        if (stats instanceof CustomStatistics customStats) {
+            for (Map.Entry<String, CustomQueryStatistics> entry : customStats.getCustomQueryStatistics().entrySet()) {
+                offerQuery(heap, top, entry.getKey(), entry.getValue(), sort);
+            }
+        } else {
+            for (String query : stats.getQueries()) {
+                offerQuery(heap, top, query, stats.getQueryStatistics(query), sort);
+            }
+        }
+
+        QueryEntry[] entries = new QueryEntry[heap.size()];
+        for (int i = entries.length - 1; i >= 0; i--) {
+            entries[i] = heap.poll();
+        }
+        return Arrays.asList(entries);
+    }
+
+    private static void offerQuery(PriorityQueue<QueryEntry> heap, int top, String query, QueryStatistics queryStats, QuerySort sort) {
+        long key = sort.key.applyAsLong(queryStats);
+        if (heap.size() < top) {
+            heap.add(new QueryEntry(query, queryStats, key));
+        } else if (key > heap.peek().key()) {
+            heap.poll();
+            heap.add(new QueryEntry(query, queryStats, key));
+        }
+    }
+
+    /**
+     * Return the load time histograms by entity name, or an empty map if they are not available.
+     */
+    private static Map<String, CompactHistogram> getEntityLoadTimes(Statistics stats) {
+        return stats instanceof CustomStatistics customStats ? customStats.getEntityLoadTimes() : Map.of();
+    }
+
+    /**
+     * Return the initialization time histograms by collection role, or an empty map if they are not available.
+     */
+    private static Map<String, CompactHistogram> getCollectionLoadTimes(Statistics stats) {
+        return stats instanceof CustomStatistics customStats ? customStats.getCollectionLoadTimes() : Map.of();
+    }
+
+    /**
+     * Return the query time and rows histograms, or null if they are not available.
+     */
+    private static CustomQueryStatistics getHistograms(QueryStatistics queryStats) {
+        return queryStats instanceof CustomQueryStatistics customQueryStats ? customQueryStats : null;
+    }
+
+    /**
+     * Return the top query fingerprints for a given sort order, followed by the aggregation of the untracked ones.
+     * The number of tracked fingerprints is bounded, so they can simply be sorted.
+     */
+    private static List<HeavyHittersSketch.Entry> getTopFingerprints(Statistics stats, QuerySort sort, int top) {
+        if (!(stats instanceof CustomStatistics customStats)) {
+            return List.of();
+        }
+
+        List<HeavyHittersSketch.Entry> entries = customStats.getQueryFingerprints().getEntries();
+        entries.sort(Comparator.comparingLong(sort.fingerprintKey).reversed());
+        List<HeavyHittersSketch.Entry> fingerprints = new ArrayList<>(entries.subList(0, Math.min(top, entries.size())));
+
+        HeavyHittersSketch.Entry other = customStats.getQueryFingerprints().getOther();
+        if (other.executions() > 0) {
+            fingerprints.add(other);
+        }
+        return fingerprints;
+    }
 
-        return buffer.toString();
+    // HTML format
+
+    private static void writeHtmlReport(Statistics stats, List<CacheRegionUtil.RegionEntry> regions, List<QueryEntry> queries,
+                                        List<HeavyHittersSketch.Entry> fingerprints, QuerySort sort, int top, PrintWriter out) {
+        writeHeader(out);
+        writeGeneralStats(stats, out);
+        writeEntityStats(stats, out);
+        writeCollectionStats(stats, out);
+        writeCacheRegionStats(regions, out);
+        writeQueryFingerprintStats(fingerprints, sort, top, out);
+        writeQueryStats(queries, sort, top, out);
+        out.print("</center></body></html>\n");
     }
 
-    private static void writeHeader(StringBuilder buffer) {
-        buffer.append("<html><head>\n");
-        buffer.append("<meta charset=\"UTF-8\">\n");
-        buffer.append("<style type=\"text/css\">\n");
-        buffer.append("body, table { font: normal 14px Verdana, Arial, sans-serif; }\n");
-        buffer.append("table { border-collapse: collapse; }\n");
-        buffer.append("tr:nth-of-type(odd) { background-color:#EEEEEE; }\n");
-        buffer.append("td, th { border: 1px solid lightgrey; }\n");
-        buffer.append("</style>\n");
-        buffer.append("<title>Hibernate Statistics</title></head><body><center><b>Hibernate Statistics</b><br>\n");
+    private static void writeHeader(PrintWriter out) {
+        out.print("<html><head>\n");
+        out.print("<meta charset=\"UTF-8\">\n");
+        out.print("<style type=\"text/css\">\n");
+        out.print("body, table { font: normal 14px Verdana, Arial, sans-serif; }\n");
+        out.print("table { border-collapse: collapse; }\n");
+        out.print("tr:nth-of-type(odd) { background-color:#EEEEEE; }\n");
+        out.print("td, th { border: 1px solid lightgrey; }\n");
+        out.print("</style>\n");
+        out.print("<title>Hibernate Statistics</title></head><body><center><b>Hibernate Statistics</b><br>\n");
     }
 
-    private static void writeGeneralStats(Statistics stats, StringBuilder buffer) {
-        buffer.append("<br>\n");
-        buffer.append("<table>\n");
-        buffer.append("<tr><th colspan=2>General Statistics</th></tr>");
-        buffer.append("<tr><td><i>Name</i></td><td><i>Value</i></td></tr>\n");
-        writeObjectStat("Statistics Enabled", stats.isStatisticsEnabled(), buffer);
-        writeObjectStat("Start Time", stats.getStartTime() + " (" + getFormattedTimestamp(stats.getStartTime()) + ")", buffer);
+    private static void writeGeneralStats(Statistics stats, PrintWriter out) {
+        out.print("<br>\n");
+        out.print("<table>\n");
+        out.print("<tr><th colspan=2>General Statistics</th></tr>");
+        out.print("<tr><td><i>Name</i></td><td><i>Value</i></td></tr>\n");
+        writeObjectStat("Statistics Enabled", stats.isStatisticsEnabled(), out);
+        writeObjectStat("Start Time", stats.getStartTime() + " (" + getFormattedTimestamp(stats.getStartTime()) + ")", out);
         writeObjectStat("Sessions",
                 "Opened=" + stats.getSessionOpenCount() +
-                        ", Closed=" + stats.getSessionCloseCount(), buffer);
+                        ", Closed=" + stats.getSessionCloseCount(), out);
         writeObjectStat("Transactions",
                 "Count=" + stats.getTransactionCount() +
                         ", Successful=" + stats.getSuccessfulTransactionCount() +
-                        ", Optimistic Failures=" + stats.getOptimisticFailureCount(), buffer);
-        writeObjectStat("Flushes", stats.getFlushCount(), buffer);
-        writeObjectStat("Connections Obtained", stats.getConnectCount(), buffer);
+                        ", Optimistic Failures=" + stats.getOptimisticFailureCount(), out);
+        writeObjectStat("Flushes", stats.getFlushCount(), out);
+        writeObjectStat("Connections Obtained", stats.getConnectCount(), out);
         writeObjectStat("Statements",
                 "Prepared=" + stats.getPrepareStatementCount() +
-                        ", Closed=" + stats.getCloseStatementCount(), buffer);
+                        ", Closed=" + stats.getCloseStatementCount(), out);
         writeObjectStat("L2 Cache",
                 "Hits=" + stats.getSecondLevelCacheHitCount() +
                         ", Misses=" + stats.getSecondLevelCacheMissCount() +
-                        ", Puts=" + stats.getSecondLevelCachePutCount(), buffer);
+                        ", Puts=" + stats.getSecondLevelCachePutCount(), out);
         writeObjectStat("Entities",
                 "Fetches=" + stats.getEntityFetchCount() +
                         ", Loads=" + stats.getEntityLoadCount() +
                         ", Inserts=" + stats.getEntityInsertCount() +
                         ", Updates=" + stats.getEntityUpdateCount() +
-                        ", Deletes=" + stats.getEntityDeleteCount(), buffer);
+                        ", Deletes=" + stats.getEntityDeleteCount(), out);
         writeObjectStat("Collections",
                 "Fetches=" + stats.getCollectionFetchCount() +
                         ", Loads=" + stats.getCollectionLoadCount() +
                         ", Updates=" + stats.getCollectionUpdateCount() +
                         ", Recreates=" + stats.getCollectionRecreateCount() +
-                        ", Removes=" + stats.getCollectionRemoveCount(), buffer);
+                        ", Removes=" + stats.getCollectionRemoveCount(), out);
         writeObjectStat("Queries",
                 "Executions=" + stats.getQueryExecutionCount() +
                         ", Hits=" + stats.getQueryCacheHitCount() +
                         ", Misses=" + stats.getQueryCacheMissCount() +
                         ", Puts=" + stats.getQueryCachePutCount() +
-                        ", Max Time=" + stats.getQueryExecutionMaxTime(), buffer);
+                        ", Max Time=" + stats.getQueryExecutionMaxTime(), out);
         writeObjectStat("Query Plan",
                 "Hits=" + stats.getQueryPlanCacheHitCount() +
-                        ", Misses=" + stats.getQueryPlanCacheMissCount(), buffer);
-        buffer.append("</table>\n");
+                        ", Misses=" + stats.getQueryPlanCacheMissCount(), out);
+        out.print("</table>\n");
     }
 
-    private static void writeObjectStat(String name, Object value, StringBuilder buffer) {
-        buffer.append("<tr><td>");
-        buffer.append(name);
-        buffer.append("</td><td>");
-        buffer.append(value);
-        buffer.append("</td></tr>\n");
+    private static void writeObjectStat(String name, Object value, PrintWriter out) {
+        out.print("<tr><td>");
+        out.print(name);
+        out.print("</td><td>");
+        out.print(value);
+        out.print("</td></tr>\n");
     }
 
-    private static void writeEntityStats(Statistics stats, StringBuilder buffer) {
-        buffer.append("<br>\n");
-        buffer.append("<table>\n");
-        buffer.append("<tr><th colspan=7>Entity Statistics</th></tr>");
-        buffer.append("<tr><td><i>Name</i></td><td><i>Fetches</i></td><td><i>Loads</i></td><td><i>Inserts</i>");
-        buffer.append("<td><i>Updates</i></td><td><i>Deletes</i></td><td><i>Optimistic Failures</i></td></tr>");
+    private static void writeEntityStats(Statistics stats, PrintWriter out) {
+        out.print("<br>\n");
+        out.print("<table>\n");
+        out.print("<tr><th colspan=8>Entity Statistics</th></tr>");
+        out.print("<tr><td><i>Name</i></td><td><i>Fetches</i></td><td><i>Loads</i></td><td><i>Inserts</i>");
+        out.print("<td><i>Updates</i></td><td><i>Deletes</i></td><td><i>Optimistic Failures</i></td>");
+        out.print("<td><i>Load Time p50 / p95 / p99 (μs)</i></td></tr>");
+
+        Map<String, CompactHistogram> loadTimes = getEntityLoadTimes(stats);
 
         String[] entityNames = stats.getEntityNames();
         Arrays.sort(entityNames);
@@ -127,31 +301,36 @@ public class HibernateStatisticsUtil {
                 continue;
             }
 
-            buffer.append("<tr><td>");
-            buffer.append(entityName);
-            buffer.append("</td><td>");
-            buffer.append(fetchCount);
-            buffer.append("</td><td>");
-            buffer.append(loadCount);
-            buffer.append("</td><td>");
-            buffer.append(insertCount);
-            buffer.append("</td><td>");
-            buffer.append(updateCount);
-            buffer.append("</td><td>");
-            buffer.append(deleteCount);
-            buffer.append("</td><td>");
-            buffer.append(optimisticFailureCount);
-            buffer.append("</td></tr>\n");
-        }
-        buffer.append("</table>\n");
-    }
-
-    private static void writeCollectionStats(Statistics stats, StringBuilder buffer) {
-        buffer.append("<br>\n");
-        buffer.append("<table>\n");
-        buffer.append("<tr><th colspan=6>Collection Statistics</th></tr>");
-        buffer.append("<tr><td><i>Role Name</i></td><td><i>Fetches</i></td><td><i>Loads</i></td>");
-        buffer.append("<td><i>Updates</i></td><td><i>Recreates</i></td><td><i>Removes</i></td></tr>");
+            out.print("<tr><td>");
+            out.print(entityName);
+            out.print("</td><td>");
+            out.print(fetchCount);
+            out.print("</td><td>");
+            out.print(loadCount);
+            out.print("</td><td>");
+            out.print(insertCount);
+            out.print("</td><td>");
+            out.print(updateCount);
+            out.print("</td><td>");
+            out.print(deleteCount);
+            out.print("</td><td>");
+            out.print(optimisticFailureCount);
+            out.print("</td><td>");
+            writePercentiles(loadTimes.get(entityName), 1000, out);
+            out.print("</td></tr>\n");
+        }
+        out.print("</table>\n");
+    }
+
+    private static void writeCollectionStats(Statistics stats, PrintWriter out) {
+        out.print("<br>\n");
+        out.print("<table>\n");
+        out.print("<tr><th colspan=7>Collection Statistics</th></tr>");
+        out.print("<tr><td><i>Role Name</i></td><td><i>Fetches</i></td><td><i>Loads</i></td>");
+        out.print("<td><i>Updates</i></td><td><i>Recreates</i></td><td><i>Removes</i></td>");
+        out.print("<td><i>Load Time p50 / p95 / p99 (μs)</i></td></tr>");
+
+        Map<String, CompactHistogram> loadTimes = getCollectionLoadTimes(stats);
 
         String[] collectionRoleNames = stats.getCollectionRoleNames();
         Arrays.sort(collectionRoleNames);
@@ -170,55 +349,468 @@ public class HibernateStatisticsUtil {
                 continue;
             }
 
-            buffer.append("<tr><td>");
-            buffer.append(collectionRoleName);
-            buffer.append("</td><td>");
-            buffer.append(fetchCount);
-            buffer.append("</td><td>");
-            buffer.append(loadCount);
-            buffer.append("</td><td>");
-            buffer.append(updateCount);
-            buffer.append("</td><td>");
-            buffer.append(recreateCount);
-            buffer.append("</td><td>");
-            buffer.append(removeCount);
-            buffer.append("</td></tr>\n");
-        }
-        buffer.append("</table>\n");
-    }
-
-    private static void writeQueryStats(Statistics stats, StringBuilder buffer) {
-        buffer.append("<br>\n");
-        buffer.append("<table>\n");
-        buffer.append("<tr><th colspan=9>Query Statistics</th></tr>");
-        buffer.append("<tr><td><i>Name</i></td><td><i>Executions</i></td><td><i>Hits</i></td><td><i>Misses</i></td><td><i>Puts</i></td>");
-        buffer.append("<td><i>Average Time</i></td><td><i>Min Time</i></td><td><i>Max Time</i></td><td><i>Total Rows</i></td></tr>");
-
-        String[] queries = stats.getQueries();
-        Arrays.sort(queries);
-        for (String query : queries) {
-            QueryStatistics queryStats = stats.getQueryStatistics(query);
-            buffer.append("<tr><td>");
-            buffer.append(query);
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getExecutionCount());
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getCacheHitCount());
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getCacheMissCount());
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getCachePutCount());
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getExecutionAvgTime());
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getExecutionMinTime());
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getExecutionMaxTime());
-            buffer.append("</td><td>");
-            buffer.append(queryStats.getExecutionRowCount());
-            buffer.append("</td></tr>\n");
-        }
-        buffer.append("</table>\n");
+            out.print("<tr><td>");
+            out.print(collectionRoleName);
+            out.print("</td><td>");
+            out.print(fetchCount);
+            out.print("</td><td>");
+            out.print(loadCount);
+            out.print("</td><td>");
+            out.print(updateCount);
+            out.print("</td><td>");
+            out.print(recreateCount);
+            out.print("</td><td>");
+            out.print(removeCount);
+            out.print("</td><td>");
+            writePercentiles(loadTimes.get(collectionRoleName), 1000, out);
+            out.print("</td></tr>\n");
+        }
+        out.print("</table>\n");
+    }
+
+    private static void writeCacheRegionStats(List<CacheRegionUtil.RegionEntry> regions, PrintWriter out) {
+        out.print("<br>\n");
+        out.print("<table>\n");
+        out.print("<tr><th colspan=8>Cache Region Statistics</th></tr>");
+        out.print("<tr><td><i>Region</i></td><td><i>Hits</i></td><td><i>Misses</i></td><td><i>Puts</i></td><td><i>Hit Ratio</i></td>");
+        out.print("<td><i>Size</i></td><td><i>Evictions</i></td><td><i>Memory Estimate (KB)</i></td></tr>");
+
+        for (CacheRegionUtil.RegionEntry region : regions) {
+            out.print("<tr><td>");
+            out.print(region.name());
+            out.print("</td><td>");
+            out.print(region.hits());
+            out.print("</td><td>");
+            out.print(region.misses());
+            out.print("</td><td>");
+            out.print(region.puts());
+            out.print("</td><td>");
+            out.print(region.getHitRatio() >= 0 ? String.format("%.1f %%", region.getHitRatio()) : "");
+            out.print("</td><td>");
+            out.print(region.size());
+            out.print("</td><td>");
+            out.print(region.evictions());
+            out.print("</td><td>");
+            out.print(region.memoryEstimate() >= 0 ? region.memoryEstimate() / 1024 : region.memoryEstimate());
+            out.print("</td></tr>\n");
+        }
+        out.print("</table>\n");
+    }
+
+    private static void writeQueryStats(List<QueryEntry> queries, QuerySort sort, int top, PrintWriter out) {
+        out.print("<br>\n");
+        out.print("<table>\n");
+        out.print("<tr><th colspan=12>Query Statistics (top " + top + " by " + sort.name + ")</th></tr>");
+        out.print("<tr><td><i>Name</i></td><td><i>Executions</i></td><td><i>Hits</i></td><td><i>Misses</i></td><td><i>Puts</i></td>");
+        out.print("<td><i>Total Time</i></td><td><i>Average Time</i></td><td><i>Min Time</i></td><td><i>Max Time</i></td>");
+        out.print("<td><i>Time p50 / p95 / p99</i></td><td><i>Total Rows</i></td><td><i>Rows p50 / p95 / p99</i></td></tr>");
+
+        for (QueryEntry entry : queries) {
+            QueryStatistics queryStats = entry.stats();
+            out.print("<tr><td>");
+            out.print(escapeHtml(entry.query()));
+            out.print("</td><td>");
+            out.print(queryStats.getExecutionCount());
+            out.print("</td><td>");
+            out.print(queryStats.getCacheHitCount());
+            out.print("</td><td>");
+            out.print(queryStats.getCacheMissCount());
+            out.print("</td><td>");
+            out.print(queryStats.getCachePutCount());
+            out.print("</td><td>");
+            out.print(queryStats.getExecutionTotalTime());
+            out.print("</td><td>");
+            out.print(queryStats.getExecutionAvgTime());
+            out.print("</td><td>");
+            out.print(queryStats.getExecutionMinTime());
+            out.print("</td><td>");
+            out.print(queryStats.getExecutionMaxTime());
+            out.print("</td><td>");
+            CustomQueryStatistics histograms = getHistograms(queryStats);
+            writePercentiles(histograms != null ? histograms.getExecutionTimes() : null, 1, out);
+            out.print("</td><td>");
+            out.print(queryStats.getExecutionRowCount());
+            out.print("</td><td>");
+            writePercentiles(histograms != null ? histograms.getExecutionRows() : null, 1, out);
+            out.print("</td></tr>\n");
+        }
+        out.print("</table>\n");
+    }
+
+    private static void writeQueryFingerprintStats(List<HeavyHittersSketch.Entry> fingerprints, QuerySort sort, int top, PrintWriter out) {
+        if (fingerprints.isEmpty()) {
+            return;
+        }
+
+        out.print("<br>\n");
+        out.print("<table>\n");
+        out.print("<tr><th colspan=6>Query Fingerprint Statistics (top " + top + " by " + sort.name + ")</th></tr>");
+        out.print("<tr><td><i>Fingerprint</i></td><td><i>Executions</i></td><td><i>Total Time</i></td>");
+        out.print("<td><i>Average Time</i></td><td><i>Max Time</i></td><td><i>Total Rows</i></td></tr>");
+
+        for (HeavyHittersSketch.Entry fingerprint : fingerprints) {
+            out.print("<tr><td>");
+            out.print(escapeHtml(fingerprint.getFingerprint()));
+            out.print("</td><td>");
+            out.print(fingerprint.executions());
+            out.print("</td><td>");
+            out.print(fingerprint.totalTime());
+            out.print("</td><td>");
+            out.print(fingerprint.getAvgTime());
+            out.print("</td><td>");
+            out.print(fingerprint.maxTime());
+            out.print("</td><td>");
+            out.print(fingerprint.rows());
+            out.print("</td></tr>\n");
+        }
+        out.print("</table>\n");
+    }
+
+    /**
+     * Write the p50, p95 and p99 of a histogram divided by a unit, or nothing if the histogram is not available.
+     */
+    private static void writePercentiles(CompactHistogram histogram, long unit, PrintWriter out) {
+        if (histogram == null) {
+            return;
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        out.print(snapshot.getValueAtPercentile(50) / unit);
+        out.print(" / ");
+        out.print(snapshot.getValueAtPercentile(95) / unit);
+        out.print(" / ");
+        out.print(snapshot.getValueAtPercentile(99) / unit);
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    // JSON format
+
+    private static void writeJsonReport(Statistics stats, List<CacheRegionUtil.RegionEntry> regions, List<QueryEntry> queries,
+                                        List<HeavyHittersSketch.Entry> fingerprints, PrintWriter out) throws IOException {
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+            json.writeStartObject();
+
+            json.writeObjectFieldStart("general");
+            json.writeBooleanField("statisticsEnabled", stats.isStatisticsEnabled());
+            json.writeNumberField("startTime", stats.getStart().toEpochMilli());
+            json.writeNumberField("sessionsOpened", stats.getSessionOpenCount());
+            json.writeNumberField("sessionsClosed", stats.getSessionCloseCount());
+            json.writeNumberField("transactions", stats.getTransactionCount());
+            json.writeNumberField("successfulTransactions", stats.getSuccessfulTransactionCount());
+            json.writeNumberField("optimisticFailures", stats.getOptimisticFailureCount());
+            json.writeNumberField("flushes", stats.getFlushCount());
+            json.writeNumberField("connectionsObtained", stats.getConnectCount());
+            json.writeNumberField("statementsPrepared", stats.getPrepareStatementCount());
+            json.writeNumberField("statementsClosed", stats.getCloseStatementCount());
+            json.writeNumberField("secondLevelCacheHits", stats.getSecondLevelCacheHitCount());
+            json.writeNumberField("secondLevelCacheMisses", stats.getSecondLevelCacheMissCount());
+            json.writeNumberField("secondLevelCachePuts", stats.getSecondLevelCachePutCount());
+            json.writeNumberField("queryExecutions", stats.getQueryExecutionCount());
+            json.writeNumberField("queryCacheHits", stats.getQueryCacheHitCount());
+            json.writeNumberField("queryCacheMisses", stats.getQueryCacheMissCount());
+            json.writeNumberField("queryCachePuts", stats.getQueryCachePutCount());
+            json.writeNumberField("queryExecutionMaxTime", stats.getQueryExecutionMaxTime());
+            json.writeNumberField("queryPlanCacheHits", stats.getQueryPlanCacheHitCount());
+            json.writeNumberField("queryPlanCacheMisses", stats.getQueryPlanCacheMissCount());
+            json.writeEndObject();
+
+            Map<String, CompactHistogram> entityLoadTimes = getEntityLoadTimes(stats);
+            json.writeObjectFieldStart("entities");
+            for (String entityName : stats.getEntityNames()) {
+                EntityStatistics entityStats = stats.getEntityStatistics(entityName);
+                json.writeObjectFieldStart(entityName);
+                json.writeNumberField("fetches", entityStats.getFetchCount());
+                json.writeNumberField("loads", entityStats.getLoadCount());
+                json.writeNumberField("inserts", entityStats.getInsertCount());
+                json.writeNumberField("updates", entityStats.getUpdateCount());
+                json.writeNumberField("deletes", entityStats.getDeleteCount());
+                json.writeNumberField("optimisticFailures", entityStats.getOptimisticFailureCount());
+                writeJsonPercentiles(json, "loadTimeMicros", entityLoadTimes.get(entityName), 1000);
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+
+            Map<String, CompactHistogram> collectionLoadTimes = getCollectionLoadTimes(stats);
+            json.writeObjectFieldStart("collections");
+            for (String collectionRoleName : stats.getCollectionRoleNames()) {
+                CollectionStatistics collectionStats = stats.getCollectionStatistics(collectionRoleName);
+                json.writeObjectFieldStart(collectionRoleName);
+                json.writeNumberField("fetches", collectionStats.getFetchCount());
+                json.writeNumberField("loads", collectionStats.getLoadCount());
+                json.writeNumberField("updates", collectionStats.getUpdateCount());
+                json.writeNumberField("recreates", collectionStats.getRecreateCount());
+                json.writeNumberField("removes", collectionStats.getRemoveCount());
+                writeJsonPercentiles(json, "loadTimeMicros", collectionLoadTimes.get(collectionRoleName), 1000);
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+
+            json.writeObjectFieldStart("cacheRegions");
+            for (CacheRegionUtil.RegionEntry region : regions) {
+                json.writeObjectFieldStart(region.name());
+                json.writeNumberField("hits", region.hits());
+                json.writeNumberField("misses", region.misses());
+                json.writeNumberField("puts", region.puts());
+                json.writeNumberField("hitRatio", region.getHitRatio());
+                json.writeNumberField("size", region.size());
+                json.writeNumberField("evictions", region.evictions());
+                json.writeNumberField("memoryEstimate", region.memoryEstimate());
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+
+            json.writeArrayFieldStart("queryFingerprints");
+            for (HeavyHittersSketch.Entry fingerprint : fingerprints) {
+                json.writeStartObject();
+                json.writeStringField("fingerprint", fingerprint.getFingerprint());
+                json.writeNumberField("executions", fingerprint.executions());
+                json.writeNumberField("totalTime", fingerprint.totalTime());
+                json.writeNumberField("avgTime", fingerprint.getAvgTime());
+                json.writeNumberField("maxTime", fingerprint.maxTime());
+                json.writeNumberField("rows", fingerprint.rows());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+
+            json.writeArrayFieldStart("queries");
+            for (QueryEntry entry : queries) {
+                QueryStatistics queryStats = entry.stats();
+                json.writeStartObject();
+                json.writeStringField("query", entry.query());
+                json.writeNumberField("executions", queryStats.getExecutionCount());
+                json.writeNumberField("cacheHits", queryStats.getCacheHitCount());
+                json.writeNumberField("cacheMisses", queryStats.getCacheMissCount());
+                json.writeNumberField("cachePuts", queryStats.getCachePutCount());
+                json.writeNumberField("totalTime", queryStats.getExecutionTotalTime());
+                json.writeNumberField("avgTime", queryStats.getExecutionAvgTime());
+                json.writeNumberField("minTime", queryStats.getExecutionMinTime());
+                json.writeNumberField("maxTime", queryStats.getExecutionMaxTime());
+                json.writeNumberField("rows", queryStats.getExecutionRowCount());
+                CustomQueryStatistics histograms = getHistograms(queryStats);
+                if (histograms != null) {
+                    writeJsonPercentiles(json, "time", histograms.getExecutionTimes(), 1);
+                    writeJsonPercentiles(json, "rowsPerExecution", histograms.getExecutionRows(), 1);
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+
+            json.writeEndObject();
+        }
+    }
+
+    private static void writeJsonPercentiles(JsonGenerator json, String name, CompactHistogram histogram, long unit) throws IOException {
+        if (histogram == null) {
+            return;
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("p50", snapshot.getValueAtPercentile(50) / unit);
+        json.writeNumberField("p95", snapshot.getValueAtPercentile(95) / unit);
+        json.writeNumberField("p99", snapshot.getValueAtPercentile(99) / unit);
+        json.writeEndObject();
+    }
+
+    // Prometheus text format
+
+    private static void writePrometheusReport(Statistics stats, List<CacheRegionUtil.RegionEntry> regions, List<QueryEntry> queries,
+                                              List<HeavyHittersSketch.Entry> fingerprints, PrintWriter out) {
+        writeCounter("hibernate_sessions_opened_total", "Opened sessions", stats.getSessionOpenCount(), out);
+        writeCounter("hibernate_sessions_closed_total", "Closed sessions", stats.getSessionCloseCount(), out);
+        writeCounter("hibernate_transactions_total", "Transactions", stats.getTransactionCount(), out);
+        writeCounter("hibernate_transactions_successful_total", "Successful transactions", stats.getSuccessfulTransactionCount(), out);
+        writeCounter("hibernate_optimistic_failures_total", "Optimistic failures", stats.getOptimisticFailureCount(), out);
+        writeCounter("hibernate_flushes_total", "Flushes", stats.getFlushCount(), out);
+        writeCounter("hibernate_connections_obtained_total", "Obtained connections", stats.getConnectCount(), out);
+        writeCounter("hibernate_statements_prepared_total", "Prepared statements", stats.getPrepareStatementCount(), out);
+        writeCounter("hibernate_statements_closed_total", "Closed statements", stats.getCloseStatementCount(), out);
+        writeCounter("hibernate_second_level_cache_hits_total", "Second level cache hits", stats.getSecondLevelCacheHitCount(), out);
+        writeCounter("hibernate_second_level_cache_misses_total", "Second level cache misses", stats.getSecondLevelCacheMissCount(), out);
+        writeCounter("hibernate_second_level_cache_puts_total", "Second level cache puts", stats.getSecondLevelCachePutCount(), out);
+        writeCounter("hibernate_query_cache_hits_total", "Query cache hits", stats.getQueryCacheHitCount(), out);
+        writeCounter("hibernate_query_cache_misses_total", "Query cache misses", stats.getQueryCacheMissCount(), out);
+        writeCounter("hibernate_query_cache_puts_total", "Query cache puts", stats.getQueryCachePutCount(), out);
+        writeCounter("hibernate_query_plan_cache_hits_total", "Query plan cache hits", stats.getQueryPlanCacheHitCount(), out);
+        writeCounter("hibernate_query_plan_cache_misses_total", "Query plan cache misses", stats.getQueryPlanCacheMissCount(), out);
+
+        String[] entityNames = stats.getEntityNames();
+        List<EntityStatistics> entityStats = new ArrayList<>(entityNames.length);
+        for (String entityName : entityNames) {
+            entityStats.add(stats.getEntityStatistics(entityName));
+        }
+        writeMetadata("hibernate_entity_fetches_total", "counter", "Entity fetches", out);
+        for (int i = 0; i < entityNames.length; i++) {
+            writeSample("hibernate_entity_fetches_total", "entity", entityNames[i], entityStats.get(i).getFetchCount(), out);
+        }
+        writeMetadata("hibernate_entity_loads_total", "counter", "Entity loads", out);
+        for (int i = 0; i < entityNames.length; i++) {
+            writeSample("hibernate_entity_loads_total", "entity", entityNames[i], entityStats.get(i).getLoadCount(), out);
+        }
+        writeMetadata("hibernate_entity_inserts_total", "counter", "Entity inserts", out);
+        for (int i = 0; i < entityNames.length; i++) {
+            writeSample("hibernate_entity_inserts_total", "entity", entityNames[i], entityStats.get(i).getInsertCount(), out);
+        }
+        writeMetadata("hibernate_entity_updates_total", "counter", "Entity updates", out);
+        for (int i = 0; i < entityNames.length; i++) {
+            writeSample("hibernate_entity_updates_total", "entity", entityNames[i], entityStats.get(i).getUpdateCount(), out);
+        }
+        writeMetadata("hibernate_entity_deletes_total", "counter", "Entity deletes", out);
+        for (int i = 0; i < entityNames.length; i++) {
+            writeSample("hibernate_entity_deletes_total", "entity", entityNames[i], entityStats.get(i).getDeleteCount(), out);
+        }
+
+        writeMetadata("hibernate_entity_load_time_microseconds", "summary", "Entity load time", out);
+        for (Map.Entry<String, CompactHistogram> entry : getEntityLoadTimes(stats).entrySet()) {
+            writeQuantiles("hibernate_entity_load_time_microseconds", "entity", entry.getKey(), entry.getValue(), 1000, out);
+        }
+
+        String[] collectionRoleNames = stats.getCollectionRoleNames();
+        writeMetadata("hibernate_collection_fetches_total", "counter", "Collection fetches", out);
+        for (String collectionRoleName : collectionRoleNames) {
+            writeSample("hibernate_collection_fetches_total", "role", collectionRoleName,
+                    stats.getCollectionStatistics(collectionRoleName).getFetchCount(), out);
+        }
+        writeMetadata("hibernate_collection_loads_total", "counter", "Collection loads", out);
+        for (String collectionRoleName : collectionRoleNames) {
+            writeSample("hibernate_collection_loads_total", "role", collectionRoleName,
+                    stats.getCollectionStatistics(collectionRoleName).getLoadCount(), out);
+        }
+
+        writeMetadata("hibernate_collection_load_time_microseconds", "summary", "Collection initialization time", out);
+        for (Map.Entry<String, CompactHistogram> entry : getCollectionLoadTimes(stats).entrySet()) {
+            writeQuantiles("hibernate_collection_load_time_microseconds", "role", entry.getKey(), entry.getValue(), 1000, out);
+        }
+
+        writeMetadata("hibernate_cache_region_hits_total", "counter", "Cache region hits", out);
+        for (CacheRegionUtil.RegionEntry region : regions) {
+            writeSample("hibernate_cache_region_hits_total", "region", region.name(), region.hits(), out);
+        }
+        writeMetadata("hibernate_cache_region_misses_total", "counter", "Cache region misses", out);
+        for (CacheRegionUtil.RegionEntry region : regions) {
+            writeSample("hibernate_cache_region_misses_total", "region", region.name(), region.misses(), out);
+        }
+        writeMetadata("hibernate_cache_region_puts_total", "counter", "Cache region puts", out);
+        for (CacheRegionUtil.RegionEntry region : regions) {
+            writeSample("hibernate_cache_region_puts_total", "region", region.name(), region.puts(), out);
+        }
+        writeMetadata("hibernate_cache_region_size", "gauge", "Cache region estimated number of entries", out);
+        for (CacheRegionUtil.RegionEntry region : regions) {
+            writeSample("hibernate_cache_region_size", "region", region.name(), region.size(), out);
+        }
+        writeMetadata("hibernate_cache_region_evictions_total", "counter", "Cache region evictions", out);
+        for (CacheRegionUtil.RegionEntry region : regions) {
+            writeSample("hibernate_cache_region_evictions_total", "region", region.name(), region.evictions(), out);
+        }
+        writeMetadata("hibernate_cache_region_memory_bytes", "gauge", "Cache region estimated memory footprint", out);
+        for (CacheRegionUtil.RegionEntry region : regions) {
+            writeSample("hibernate_cache_region_memory_bytes", "region", region.name(), region.memoryEstimate(), out);
+        }
+
+        writeMetadata("hibernate_query_fingerprint_executions_total", "counter", "Query fingerprint executions", out);
+        for (HeavyHittersSketch.Entry fingerprint : fingerprints) {
+            writeSample("hibernate_query_fingerprint_executions_total", "fingerprint", fingerprint.getFingerprint(), fingerprint.executions(), out);
+        }
+        writeMetadata("hibernate_query_fingerprint_execution_time_milliseconds_total", "counter", "Query fingerprint total execution time", out);
+        for (HeavyHittersSketch.Entry fingerprint : fingerprints) {
+            writeSample("hibernate_query_fingerprint_execution_time_milliseconds_total", "fingerprint", fingerprint.getFingerprint(), fingerprint.totalTime(), out);
+        }
+        writeMetadata("hibernate_query_fingerprint_rows_total", "counter", "Query fingerprint returned rows", out);
+        for (HeavyHittersSketch.Entry fingerprint : fingerprints) {
+            writeSample("hibernate_query_fingerprint_rows_total", "fingerprint", fingerprint.getFingerprint(), fingerprint.rows(), out);
+        }
+
+        writeMetadata("hibernate_query_executions_total", "counter", "Query executions", out);
+        for (QueryEntry entry : queries) {
+            writeSample("hibernate_query_executions_total", "query", entry.query(), entry.stats().getExecutionCount(), out);
+        }
+        writeMetadata("hibernate_query_execution_time_milliseconds_total", "counter", "Query total execution time", out);
+        for (QueryEntry entry : queries) {
+            writeSample("hibernate_query_execution_time_milliseconds_total", "query", entry.query(), entry.stats().getExecutionTotalTime(), out);
+        }
+        writeMetadata("hibernate_query_execution_max_time_milliseconds", "gauge", "Query max execution time", out);
+        for (QueryEntry entry : queries) {
+            writeSample("hibernate_query_execution_max_time_milliseconds", "query", entry.query(), entry.stats().getExecutionMaxTime(), out);
+        }
+        writeMetadata("hibernate_query_rows_total", "counter", "Query returned rows", out);
+        for (QueryEntry entry : queries) {
+            writeSample("hibernate_query_rows_total", "query", entry.query(), entry.stats().getExecutionRowCount(), out);
+        }
+        writeMetadata("hibernate_query_execution_time_milliseconds", "summary", "Query execution time", out);
+        for (QueryEntry entry : queries) {
+            CustomQueryStatistics histograms = getHistograms(entry.stats());
+            if (histograms != null) {
+                writeQuantiles("hibernate_query_execution_time_milliseconds", "query", entry.query(), histograms.getExecutionTimes(), 1, out);
+            }
+        }
+        writeMetadata("hibernate_query_rows", "summary", "Query returned rows per execution", out);
+        for (QueryEntry entry : queries) {
+            CustomQueryStatistics histograms = getHistograms(entry.stats());
+            if (histograms != null) {
+                writeQuantiles("hibernate_query_rows", "query", entry.query(), histograms.getExecutionRows(), 1, out);
+            }
+        }
+    }
+
+    private static void writeCounter(String name, String help, long value, PrintWriter out) {
+        writeMetadata(name, "counter", help, out);
+        out.print(name);
+        out.print(' ');
+        out.print(value);
+        out.print('\n');
+    }
+
+    private static void writeMetadata(String name, String type, String help, PrintWriter out) {
+        out.print("# HELP ");
+        out.print(name);
+        out.print(' ');
+        out.print(help);
+        out.print("\n# TYPE ");
+        out.print(name);
+        out.print(' ');
+        out.print(type);
+        out.print('\n');
+    }
+
+    private static void writeSample(String name, String label, String labelValue, long value, PrintWriter out) {
+        writeSample(name, label, labelValue, null, value, out);
+    }
+
+    /**
+     * Write the p50, p95 and p99 quantiles of a summary, divided by a unit.
+     */
+    private static void writeQuantiles(String name, String label, String labelValue, CompactHistogram histogram, long unit,
+                                       PrintWriter out) {
+        HistogramSnapshot snapshot = histogram.snapshot();
+        writeSample(name, label, labelValue, "0.5", snapshot.getValueAtPercentile(50) / unit, out);
+        writeSample(name, label, labelValue, "0.95", snapshot.getValueAtPercentile(95) / unit, out);
+        writeSample(name, label, labelValue, "0.99", snapshot.getValueAtPercentile(99) / unit, out);
+        writeSample(name + "_sum", label, labelValue, null, snapshot.getSum() / unit, out);
+        writeSample(name + "_count", label, labelValue, null, snapshot.getCount(), out);
+    }
+
+    private static void writeSample(String name, String label, String labelValue, String quantile, long value, PrintWriter out) {
+        out.print(name);
+        out.print('{');
+        out.print(label);
+        out.print("=\"");
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            switch (c) {
+                case '\\' -> out.print("\\\\");
+                case '"' -> out.print("\\\"");
+                case '\n' -> out.print("\\n");
+                default -> out.print(c);
+            }
+        }
+        if (quantile != null) {
+            out.print("\",quantile=\"");
+            out.print(quantile);
+        }
+        out.print("\"} ");
+        out.print(value);
+        out.print('\n');
     }
 
     private static String getFormattedTimestamp(long timestamp) {
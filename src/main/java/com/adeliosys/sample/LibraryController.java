@@ -1,84 +1,346 @@
 package com.adeliosys.sample;
 
+import com.adeliosys.sample.log.AsyncLogPipeline;
+import com.adeliosys.sample.metrics.ConnectionHoldRegistry;
+import com.adeliosys.sample.metrics.EntityCountRegistry;
+import com.adeliosys.sample.metrics.NPlusOneRegistry;
+import com.adeliosys.sample.metrics.RouteLatencyRegistry;
+import com.adeliosys.sample.metrics.RouteMetricsRegistry;
+import com.adeliosys.sample.metrics.SessionLogPolicy;
+import com.adeliosys.sample.metrics.SessionMetricsRegistry;
+import com.adeliosys.sample.metrics.SqlTraceRegistry;
 import com.adeliosys.sample.model.Author;
+import com.adeliosys.sample.model.AuthorSummary;
 import com.adeliosys.sample.model.Book;
 import com.adeliosys.sample.repository.AuthorRepository;
-import com.adeliosys.sample.repository.BookRepository;
-import com.zaxxer.hikari.HikariDataSource;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.hibernate.engine.spi.SelfDirtinessTracker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
-import javax.sql.DataSource;
+import jakarta.persistence.PersistenceContext;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RestController
 @Transactional
 public class LibraryController {
 
+    private static final int MAX_PAGE_SIZE = 10_000;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
     @Autowired
     private AuthorRepository authorRepository;
 
     @Autowired
-    private BookRepository bookRepository;
+    private EntityManagerFactory entityManagerFactory;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     @Autowired
-    private EntityManagerFactory entityManagerFactory;
+    private StatisticsSampler statisticsSampler;
+
+    @Autowired
+    private PoolSampler poolSampler;
+
+    @Autowired
+    private StatisticsAggregator statisticsAggregator;
 
     @Autowired
-    private DataSource dataSource;
+    private SeedDataLoader seedDataLoader;
 
     @PostConstruct
+    public void init() {
+        seedDataLoader.load(2, 2);
+    }
+
+    /**
+     * Replace the authors and books by generated ones, for example with authors=100000&booksPerAuthor=20.
+     */
     @GetMapping("/reset")
-    public void reset() {
-        authorRepository.deleteAll();
-        authorRepository.saveAll(List.of(
-                new Author("Author A").addBooks(
-                        new Book("Book A1")),
-                new Author("Author B").addBooks(
-                        new Book("Book B1"),
-                        new Book("Book B2"))));
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> reset(@RequestParam(defaultValue = "2") int authors,
+                                     @RequestParam(defaultValue = "2") int booksPerAuthor) {
+        return seedDataLoader.load(authors, booksPerAuthor);
     }
 
+    /**
+     * Return a page of authors, use the id of the last author as the "after" parameter to get the next page.
+     */
     @GetMapping("/list-authors")
-    public List<Long> listAuthors() {
-        return extractIds(authorRepository.findAll());
+    @Transactional(readOnly = true)
+    public List<AuthorSummary> listAuthors(@RequestParam(defaultValue = "0") long after,
+                                           @RequestParam(defaultValue = "100") int limit) {
+        return authorRepository.findSummaries(after, getPageable(limit));
+    }
+
+    /**
+     * Write all authors as a JSON array, while reading them from the database.
+     */
+    @GetMapping(value = "/list-authors", params = "stream=true")
+    @Transactional(readOnly = true)
+    public void streamAuthors(HttpServletResponse response) throws IOException {
+        try (Stream<AuthorSummary> authors = authorRepository.streamSummaries()) {
+            writeAuthors(authors, response);
+        }
     }
 
     @GetMapping("/find-author")
-    public List<Long> findAuthor(@RequestParam String name) {
-        return extractIds(authorRepository.findByName(name));
+    @Transactional(readOnly = true)
+    public List<AuthorSummary> findAuthor(@RequestParam String name,
+                                          @RequestParam(defaultValue = "0") long after,
+                                          @RequestParam(defaultValue = "100") int limit) {
+        return authorRepository.findSummariesByName(name, after, getPageable(limit));
+    }
+
+    @GetMapping(value = "/find-author", params = "stream=true")
+    @Transactional(readOnly = true)
+    public void streamAuthor(@RequestParam String name, HttpServletResponse response) throws IOException {
+        try (Stream<AuthorSummary> authors = authorRepository.streamSummariesByName(name)) {
+            writeAuthors(authors, response);
+        }
     }
 
-    private List<Long> extractIds(List<Author> authors) {
-        return authors.stream().map(Author::getId).collect(Collectors.toList());
+    private Pageable getPageable(int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid limit " + limit + ", expecting a value between 1 and " + MAX_PAGE_SIZE);
+        }
+        return PageRequest.ofSize(limit);
     }
 
+    private void writeAuthors(Stream<AuthorSummary> authors, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(response.getWriter())) {
+            json.writeStartArray();
+            Iterator<AuthorSummary> iterator = authors.iterator();
+            while (iterator.hasNext()) {
+                AuthorSummary author = iterator.next();
+                json.writeStartObject();
+                json.writeNumberField("id", author.id());
+                json.writeStringField("name", author.name());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+        }
+    }
+
+    /**
+     * Walk the lazy books of each author, which executes N+1 selects on purpose.
+     * The books of the authors with the same name are added.
+     */
+    @GetMapping("/count-books-per-author")
+    @Transactional(readOnly = true)
+    public Map<String, Integer> countBooksPerAuthor() {
+        return authorRepository.findAll().stream()
+                .collect(Collectors.toMap(Author::getName, a -> a.getBooks().size(), Integer::sum, LinkedHashMap::new));
+    }
+
+    /**
+     * Load all authors then rename some of them, to measure the flush of a large persistence context, for example
+     * with and without the bytecode enhancement (that tracks the modified entities instead of comparing snapshots).
+     */
+    @GetMapping("/rename-authors")
+    public Map<String, Object> renameAuthors(@RequestParam(defaultValue = "10") int count) {
+        List<Author> authors = authorRepository.findAll();
+        for (int i = 0; i < count && i < authors.size(); i++) {
+            Author author = authors.get(i);
+            String name = author.getName();
+            author.setName(name.endsWith("*") ? name.substring(0, name.length() - 1) : name + '*');
+        }
+
+        CustomSessionEventListener listener = CustomSessionEventListener.current();
+        long flushTime = listener != null ? listener.getFlushTime() : 0;
+        long flushEntityCount = listener != null ? listener.getFlushEntityCount() : 0;
+        entityManager.flush();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("bytecodeEnhanced", SelfDirtinessTracker.class.isAssignableFrom(Author.class));
+        report.put("loadedAuthors", authors.size());
+        report.put("renamedAuthors", Math.min(count, authors.size()));
+        if (listener != null) {
+            report.put("flushedEntities", listener.getFlushEntityCount() - flushEntityCount);
+            report.put("flushTime", (listener.getFlushTime() - flushTime) / 1000);
+        }
+        return report;
+    }
+
+    /**
+     * Return the number of authors and books, from the counts maintained in memory rather than from the database.
+     */
     @GetMapping("/count")
+    @Transactional(propagation = Propagation.SUPPORTS)
     public long count() {
-        return authorRepository.count() + bookRepository.count();
+        EntityCountRegistry registry = EntityCountRegistry.getInstance();
+        return registry.getCount(Author.class.getName()) + registry.getCount(Book.class.getName());
+    }
+
+    @GetMapping("/entity-counts")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getEntityCounts() {
+        return EntityCountRegistry.getInstance().getReport();
     }
 
     @GetMapping("/hibernate-stats")
     @Transactional(propagation = Propagation.SUPPORTS)
-    public String getHibernateStats(@RequestParam(required = false) boolean clear) {
-        return HibernateStatisticsUtil.generateStatsReport(entityManagerFactory, clear);
+    public void getHibernateStats(@RequestParam(required = false) boolean clear,
+                                  @RequestParam(defaultValue = "html") String format,
+                                  @RequestParam(defaultValue = "100") int top,
+                                  @RequestParam(defaultValue = "totalTime") String sort,
+                                  HttpServletResponse response) throws IOException {
+        HibernateStatisticsUtil.Format reportFormat = HibernateStatisticsUtil.Format.fromName(format);
+        HibernateStatisticsUtil.QuerySort querySort = HibernateStatisticsUtil.QuerySort.fromName(sort);
+        if (top < 1) {
+            // Checked before the content type is set, so that the error can be rendered as JSON
+            throw new IllegalArgumentException("The top must be positive");
+        }
+        response.setContentType(reportFormat.getContentType());
+        HibernateStatisticsUtil.writeStatsReport(entityManagerFactory, reportFormat, querySort, top, clear, response.getWriter());
+    }
+
+    @GetMapping("/windowed-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getWindowedStats(@RequestParam(defaultValue = "1") int minutes) {
+        return statisticsSampler.getReport(minutes);
+    }
+
+    /**
+     * Return the mergeable statistics snapshot of this node, in binary format, fetched by the fleet aggregation.
+     */
+    @GetMapping(StatisticsAggregator.SNAPSHOT_PATH)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void getStatisticsSnapshot(HttpServletResponse response) throws IOException {
+        byte[] bytes = statisticsAggregator.createLocalSnapshot().toBytes();
+        response.setContentType("application/octet-stream");
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    @GetMapping("/fleet-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getFleetStats(@RequestParam(defaultValue = "10") int top) {
+        return statisticsAggregator.getFleetReport(top);
+    }
+
+    @GetMapping("/journal-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getJournalStats() {
+        return statisticsSampler.getJournalReport();
+    }
+
+    @GetMapping("/session-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getSessionStats(@RequestParam(required = false) boolean clear) {
+        SessionMetricsRegistry registry = SessionMetricsRegistry.getInstance();
+        Map<String, Object> report = registry.getReport();
+        report.put("logging", SessionLogPolicy.getInstance().getReport());
+        if (clear) {
+            registry.clear();
+            SessionLogPolicy.getInstance().clear();
+        }
+        return report;
+    }
+
+    @GetMapping("/route-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getRouteStats(@RequestParam(required = false) boolean clear) {
+        RouteMetricsRegistry registry = RouteMetricsRegistry.getInstance();
+        Map<String, Object> report = registry.getReport();
+        if (clear) {
+            registry.clear();
+        }
+        return report;
+    }
+
+    @GetMapping("/log-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getLogStats() {
+        return AsyncLogPipeline.getInstance().getReport();
+    }
+
+    @GetMapping("/latency-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getLatencyStats(@RequestParam(required = false) boolean current, @RequestParam(required = false) boolean reset) {
+        RouteLatencyRegistry registry = RouteLatencyRegistry.getInstance();
+        Map<String, Object> report = registry.getReport(current);
+        if (reset) {
+            registry.reset();
+        }
+        return report;
+    }
+
+    @GetMapping("/n-plus-one-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getNPlusOneStats(@RequestParam(defaultValue = "20") int top, @RequestParam(required = false) boolean clear) {
+        NPlusOneRegistry registry = NPlusOneRegistry.getInstance();
+        Map<String, Object> report = registry.getReport(top);
+        if (clear) {
+            registry.clear();
+        }
+        return report;
     }
 
     @GetMapping("/datasource-stats")
     @Transactional(propagation = Propagation.SUPPORTS)
-    public Map<String, Object> getDatasourceStats() {
-        HikariDataSource hikariDataSource = (HikariDataSource) dataSource;
-        return Map.of(
-                "totalConnections", hikariDataSource.getHikariPoolMXBean().getTotalConnections(),
-                "activeConnections", hikariDataSource.getHikariPoolMXBean().getActiveConnections(),
-                "threadsWaiting", hikariDataSource.getHikariPoolMXBean().getThreadsAwaitingConnection());
+    public Map<String, Object> getDatasourceStats(@RequestParam(defaultValue = "60") int seconds,
+                                                  @RequestParam(required = false) boolean clear) {
+        Map<String, Object> report = new LinkedHashMap<>(poolSampler.getReport(seconds));
+
+        ConnectionHoldRegistry registry = ConnectionHoldRegistry.getInstance();
+        report.put("connectionHold", registry.getReport());
+        if (clear) {
+            registry.clear();
+        }
+        return report;
+    }
+
+    @GetMapping("/datasource-pool-series")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getDatasourcePoolSeries(@RequestParam(defaultValue = "5") int seconds) {
+        return poolSampler.getSeries(seconds);
+    }
+
+    @GetMapping("/datasource-sql-stats")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> getDatasourceSqlStats(@RequestParam(defaultValue = "20") int top, @RequestParam(required = false) boolean clear) {
+        SqlTraceRegistry registry = SqlTraceRegistry.getInstance();
+        Map<String, Object> report = registry.getReport(top);
+        if (clear) {
+            registry.clear();
+        }
+        return report;
+    }
+
+    /**
+     * Report the invalid request parameters, such as an unknown format or an out of range window, as bad requests.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<String, Object> handleIllegalArgument(IllegalArgumentException e) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("status", HttpStatus.BAD_REQUEST.value());
+        report.put("error", e.getMessage());
+        return report;
     }
 }
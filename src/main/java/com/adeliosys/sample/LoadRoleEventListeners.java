@@ -0,0 +1,115 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.StatementTracker;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.InitializeCollectionEvent;
+import org.hibernate.event.spi.InitializeCollectionEventListener;
+import org.hibernate.event.spi.LoadEvent;
+import org.hibernate.event.spi.LoadEventListener;
+
+import java.util.Arrays;
+
+/**
+ * Hibernate event listeners that publish the entity name or collection role being loaded, so that
+ * the statements executed by the load can be attributed to it. The first listeners are registered before
+ * the default Hibernate listeners, the other ones after.
+ * <p>
+ * They also measure the duration of the loads, recorded by {@link CustomStatistics} when it is used.
+ */
+public final class LoadRoleEventListeners {
+
+    private static final ThreadLocal<LoadStack> LOAD_STACK = ThreadLocal.withInitial(LoadStack::new);
+
+    private LoadRoleEventListeners() {
+    }
+
+    /**
+     * Register the listeners in a session factory.
+     */
+    public static void register(SessionFactoryImplementor sessionFactory) {
+        EventListenerRegistry eventListenerRegistry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        eventListenerRegistry.prependListeners(EventType.LOAD, new Start());
+        eventListenerRegistry.prependListeners(EventType.INIT_COLLECTION, new Start());
+        eventListenerRegistry.appendListeners(EventType.LOAD, new End());
+        eventListenerRegistry.appendListeners(EventType.INIT_COLLECTION, new End());
+    }
+
+    public static class Start implements LoadEventListener, InitializeCollectionEventListener {
+
+        @Override
+        public void onLoad(LoadEvent event, LoadType loadType) {
+            StatementTracker.setCurrentRole(event.getEntityClassName());
+            LOAD_STACK.get().push(event);
+        }
+
+        @Override
+        public void onInitializeCollection(InitializeCollectionEvent event) {
+            StatementTracker.setCurrentRole(event.getCollection().getRole());
+            LOAD_STACK.get().push(event);
+        }
+    }
+
+    public static class End implements LoadEventListener, InitializeCollectionEventListener {
+
+        @Override
+        public void onLoad(LoadEvent event, LoadType loadType) {
+            StatementTracker.setCurrentRole(null);
+            long time = LOAD_STACK.get().pop(event);
+            if (time >= 0 && event.getSession().getFactory().getStatistics() instanceof CustomStatistics customStatistics) {
+                customStatistics.entityLoaded(event.getEntityClassName(), time);
+            }
+        }
+
+        @Override
+        public void onInitializeCollection(InitializeCollectionEvent event) {
+            StatementTracker.setCurrentRole(null);
+            long time = LOAD_STACK.get().pop(event);
+            if (time >= 0 && event.getSession().getFactory().getStatistics() instanceof CustomStatistics customStatistics) {
+                customStatistics.collectionLoaded(event.getCollection().getRole(), time);
+            }
+        }
+    }
+
+    /**
+     * The start times of the loads in progress in a thread, since loading an entity may load other ones.
+     * A load that failed leaves its start time, that is discarded when an enclosing load ends.
+     */
+    private static class LoadStack {
+
+        private static final int MAX_DEPTH = 32;
+
+        private final Object[] events = new Object[MAX_DEPTH];
+
+        private final long[] starts = new long[MAX_DEPTH];
+
+        private int depth;
+
+        void push(Object event) {
+            if (depth >= MAX_DEPTH) {
+                // Too many failed loads, start over
+                Arrays.fill(events, null);
+                depth = 0;
+            }
+            events[depth] = event;
+            starts[depth] = System.nanoTime();
+            depth++;
+        }
+
+        /**
+         * Return the duration of a load, or -1 if its start is unknown.
+         */
+        long pop(Object event) {
+            while (depth > 0) {
+                depth--;
+                Object started = events[depth];
+                events[depth] = null;
+                if (started == event) {
+                    return System.nanoTime() - starts[depth];
+                }
+            }
+            return -1;
+        }
+    }
+}
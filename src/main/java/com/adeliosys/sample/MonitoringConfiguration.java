@@ -0,0 +1,133 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.jdbc.PoolMetricsTracker;
+import com.adeliosys.sample.jdbc.TracingDataSource;
+import com.adeliosys.sample.log.AsyncLogPipeline;
+import com.adeliosys.sample.metrics.ConnectionHoldRegistry;
+import com.adeliosys.sample.metrics.NPlusOneRegistry;
+import com.adeliosys.sample.metrics.RouteLatencyRegistry;
+import com.adeliosys.sample.metrics.SessionLogPolicy;
+import com.adeliosys.sample.metrics.SqlTraceRegistry;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.io.IOException;
+
+/**
+ * Configure the monitoring components that are not managed by Spring, such as the ones instantiated by Hibernate.
+ */
+@Configuration
+public class MonitoringConfiguration {
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${monitoring.n-plus-one.threshold:5}")
+    private int nPlusOneThreshold;
+
+    @Value("${monitoring.session-log.sample-rate:1}")
+    private int sessionLogSampleRate;
+
+    @Value("${monitoring.session-log.statement-count-threshold:0}")
+    private long sessionLogStatementCountThreshold;
+
+    @Value("${monitoring.session-log.jdbc-time-threshold:0}")
+    private long sessionLogJdbcTimeThreshold;
+
+    @Value("${monitoring.session-log.flush-entity-count-threshold:0}")
+    private long sessionLogFlushEntityCountThreshold;
+
+    @Value("${monitoring.session-log.max-per-route-per-second:0}")
+    private int sessionLogMaxPerRoutePerSecond;
+
+    @Value("${monitoring.route-latency.reset-interval:0}")
+    private long routeLatencyResetInterval;
+
+    @Value("${monitoring.connection-hold.threshold:0}")
+    private long connectionHoldThreshold;
+
+    @Value("${monitoring.async-log.file:}")
+    private String asyncLogFile;
+
+    @Value("${monitoring.async-log.backpressure:drop}")
+    private String asyncLogBackpressure;
+
+    /**
+     * Trace the JDBC statements executed through the data source used by Hibernate, see {@link TracingDataSource}.
+     * The pools behind it are not wrapped, to trace each statement once.
+     */
+    @Bean
+    public static BeanPostProcessor tracingDataSourcePostProcessor(@Value("${monitoring.sql-trace.enabled:true}") boolean enabled) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return enabled && "dataSource".equals(beanName) && bean instanceof DataSource dataSource
+                        ? TracingDataSource.wrap(dataSource) : bean;
+            }
+        };
+    }
+
+    /**
+     * Record the wait, usage and creation times of each connection pool, see {@link PoolMetricsTracker}.
+     */
+    @Bean
+    public static BeanPostProcessor poolMetricsPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource hikariDataSource) {
+                    hikariDataSource.setMetricsTrackerFactory(PoolMetricsTracker.factory());
+                }
+                return bean;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void configure() throws IOException {
+        NPlusOneRegistry.getInstance().setThreshold(nPlusOneThreshold);
+
+        SessionLogPolicy sessionLogPolicy = SessionLogPolicy.getInstance();
+        sessionLogPolicy.setSampleRate(sessionLogSampleRate);
+        sessionLogPolicy.setThresholds(sessionLogStatementCountThreshold, sessionLogJdbcTimeThreshold * 1_000_000,
+                sessionLogFlushEntityCountThreshold);
+        sessionLogPolicy.setMaxPerRoutePerSecond(sessionLogMaxPerRoutePerSecond);
+
+        RouteLatencyRegistry.getInstance().setResetInterval(routeLatencyResetInterval * 1_000_000_000);
+
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        LoadRoleEventListeners.register(sessionFactory);
+        EntityCountListeners.register(sessionFactory);
+
+        ConnectionHoldRegistry.getInstance().start(connectionHoldThreshold * 1_000_000);
+
+        AsyncLogPipeline.getInstance().start(asyncLogFile,
+                AsyncLogPipeline.Backpressure.valueOf(asyncLogBackpressure.toUpperCase()));
+    }
+
+    /**
+     * Forget the statements executed during the startup, such as the schema creation and the initial data,
+     * so that the SQL trace only reports the served requests.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void applicationReady() {
+        SqlTraceRegistry.getInstance().clear();
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        ConnectionHoldRegistry.getInstance().stop();
+        AsyncLogPipeline.getInstance().stop();
+    }
+}
@@ -0,0 +1,334 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.jdbc.PoolMetricsTracker;
+import com.adeliosys.sample.metrics.ConnectionHoldRegistry;
+import com.adeliosys.sample.metrics.SnapshotRingBuffer;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sample the state of the connection pools at a high frequency (10 ms by default) into ring buffers, to observe
+ * the bursts that the instantaneous gauges miss, and advise a pool size based on Little's law.
+ * <p>
+ * Each sample contains the pool gauges and the cumulative counters of the {@link PoolMetricsTracker},
+ * so that the rates and mean times can be computed over any window of the last minute.
+ * Hikari measures the usage time in whole milliseconds, so shorter usages count as 0. The advisor rather uses
+ * the mean connection hold time of the Hibernate sessions, measured in nanoseconds by the
+ * {@link ConnectionHoldRegistry} for all the pools, and falls back to the Hikari usage time when there is no session.
+ * The reports are keyed by pool name.
+ * <p>
+ * The sampling runs on its own daemon thread, so that it neither delays nor is delayed by the other scheduled
+ * tasks that share the single thread of the Spring scheduler.
+ */
+@Component
+public class PoolSampler {
+
+    /**
+     * The largest supported time window, in seconds.
+     */
+    private static final int MAX_WINDOW = 60;
+
+    private static final int ACTIVE = 0;
+    private static final int IDLE = 1;
+    private static final int TOTAL = 2;
+    private static final int WAITING = 3;
+    private static final int ACQUISITIONS = 4;
+    private static final int WAIT_TIME = 5;
+    private static final int USAGES = 6;
+    private static final int USAGE_TIME = 7;
+    private static final int TIMEOUTS = 8;
+    private static final int HOLDS = 9;
+    private static final int HOLD_TIME = 10;
+
+    private static final int WIDTH = 11;
+
+    /**
+     * The headroom applied to the mean concurrency given by Little's law.
+     */
+    private static final double HEADROOM = 1.25;
+
+    @Autowired
+    private List<HikariDataSource> dataSources;
+
+    @Value("${monitoring.pool-sampler.interval:10}")
+    private long interval;
+
+    @Value("${monitoring.pool-advisor.instance-count:1}")
+    private int instanceCount;
+
+    @Value("${monitoring.pool-advisor.database-max-connections:0}")
+    private int databaseMaxConnections;
+
+    private Pool[] pools;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * The samples of a connection pool.
+     */
+    private static class Pool {
+
+        private final HikariDataSource dataSource;
+
+        private final SnapshotRingBuffer buffer;
+
+        private final long[] values = new long[WIDTH];
+
+        private Pool(HikariDataSource dataSource, int capacity) {
+            this.dataSource = dataSource;
+            buffer = new SnapshotRingBuffer(capacity, WIDTH);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        int capacity = (int) (MAX_WINDOW * 1000L / interval) + 2;
+        pools = new Pool[dataSources.size()];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new Pool(dataSources.get(i), capacity);
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pool-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::sample, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void sample() {
+        long timestamp = System.currentTimeMillis();
+        for (Pool pool : pools) {
+            sample(pool, timestamp);
+        }
+    }
+
+    private void sample(Pool pool, long timestamp) {
+        HikariPoolMXBean mxBean = pool.dataSource.getHikariPoolMXBean();
+        if (mxBean == null) {
+            // The pool is not started yet
+            return;
+        }
+        PoolMetricsTracker tracker = PoolMetricsTracker.getInstance(pool.dataSource.getPoolName());
+        long[] values = pool.values;
+        values[ACTIVE] = mxBean.getActiveConnections();
+        values[IDLE] = mxBean.getIdleConnections();
+        values[TOTAL] = mxBean.getTotalConnections();
+        values[WAITING] = mxBean.getThreadsAwaitingConnection();
+        values[ACQUISITIONS] = tracker.getAcquisitionCount();
+        values[WAIT_TIME] = tracker.getWaitTime();
+        values[USAGES] = tracker.getUsageCount();
+        values[USAGE_TIME] = tracker.getUsageTime();
+        values[TIMEOUTS] = tracker.getTimeoutCount();
+        values[HOLDS] = ConnectionHoldRegistry.getInstance().getHoldCount();
+        values[HOLD_TIME] = ConnectionHoldRegistry.getInstance().getHoldTime();
+        pool.buffer.add(timestamp, values);
+    }
+
+    private static void checkWindow(int seconds) {
+        if (seconds < 1 || seconds > MAX_WINDOW) {
+            throw new IllegalArgumentException("The window must be between 1 and " + MAX_WINDOW + " seconds");
+        }
+    }
+
+    /**
+     * Return the raw samples of the pool gauges over the last given seconds, as one array per gauge, for each pool.
+     */
+    public Map<String, Object> getSeries(int seconds) {
+        checkWindow(seconds);
+        long since = System.currentTimeMillis() - seconds * 1000L;
+        Map<String, Object> report = new LinkedHashMap<>();
+        for (Pool pool : pools) {
+            report.put(pool.dataSource.getPoolName(), getSeries(pool.buffer.getSnapshotsSince(since)));
+        }
+        return report;
+    }
+
+    private static Map<String, Object> getSeries(List<long[]> snapshots) {
+        long[] timestamps = new long[snapshots.size()];
+        long[][] gauges = new long[4][snapshots.size()];
+        for (int i = 0; i < snapshots.size(); i++) {
+            long[] snapshot = snapshots.get(i);
+            timestamps[i] = snapshot[0];
+            for (int j = 0; j < gauges.length; j++) {
+                gauges[j][i] = snapshot[j + 1];
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", timestamps);
+        report.put("active", gauges[ACTIVE]);
+        report.put("idle", gauges[IDLE]);
+        report.put("total", gauges[TOTAL]);
+        report.put("waiting", gauges[WAITING]);
+        return report;
+    }
+
+    /**
+     * Return the gauges, wait and usage times of each pool, with its saturation and advised size over the last
+     * given seconds.
+     */
+    public Map<String, Object> getReport(int seconds) {
+        checkWindow(seconds);
+        long since = System.currentTimeMillis() - seconds * 1000L;
+        Map<String, Object> report = new LinkedHashMap<>();
+        for (Pool pool : pools) {
+            HikariDataSource dataSource = pool.dataSource;
+            Map<String, Object> poolReport = new LinkedHashMap<>();
+            HikariPoolMXBean mxBean = dataSource.getHikariPoolMXBean();
+            if (mxBean != null) {
+                poolReport.put("totalConnections", mxBean.getTotalConnections());
+                poolReport.put("activeConnections", mxBean.getActiveConnections());
+                poolReport.put("threadsWaiting", mxBean.getThreadsAwaitingConnection());
+            }
+            poolReport.put("pool", PoolMetricsTracker.getInstance(dataSource.getPoolName()).getReport());
+            poolReport.putAll(getReport(pool.buffer.getSnapshotsSince(since), dataSource.getMaximumPoolSize()));
+            report.put(dataSource.getPoolName(), poolReport);
+        }
+        return report;
+    }
+
+    private Map<String, Object> getReport(List<long[]> snapshots, int maxPoolSize) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        if (snapshots.size() < 2) {
+            report.put("message", "Not enough samples yet");
+            return report;
+        }
+
+        long[] first = snapshots.get(0);
+        long[] last = snapshots.get(snapshots.size() - 1);
+        double windowSeconds = Math.max(1, last[0] - first[0]) / 1000.0;
+
+        // Saturation
+        long[] active = column(snapshots, ACTIVE);
+        long[] waiting = column(snapshots, WAITING);
+        long[] demand = new long[snapshots.size()];
+        int saturatedCount = 0;
+        int waitingCount = 0;
+        for (int i = 0; i < demand.length; i++) {
+            demand[i] = active[i] + waiting[i];
+            if (active[i] >= maxPoolSize) {
+                saturatedCount++;
+            }
+            if (waiting[i] > 0) {
+                waitingCount++;
+            }
+        }
+        Map<String, Object> saturation = new LinkedHashMap<>();
+        saturation.put("windowSeconds", windowSeconds);
+        saturation.put("samples", snapshots.size());
+        saturation.put("maxPoolSize", maxPoolSize);
+        saturation.put("active", getGaugeReport(active));
+        saturation.put("waiting", getGaugeReport(waiting));
+        saturation.put("saturatedPercent", percent(saturatedCount, snapshots.size()));
+        saturation.put("waitingPercent", percent(waitingCount, snapshots.size()));
+        report.put("saturation", saturation);
+
+        // Little's law: the mean number of connections in use is the acquisition rate multiplied by the mean usage time
+        long acquisitions = last[ACQUISITIONS + 1] - first[ACQUISITIONS + 1];
+        long usages = last[USAGES + 1] - first[USAGES + 1];
+        long timeouts = last[TIMEOUTS + 1] - first[TIMEOUTS + 1];
+        double arrivalRate = acquisitions / windowSeconds;
+        long holds = last[HOLDS + 1] - first[HOLDS + 1];
+        double meanUsageSeconds;
+        String usageSource;
+        if (holds > 0) {
+            meanUsageSeconds = (last[HOLD_TIME + 1] - first[HOLD_TIME + 1]) / 1e9 / holds;
+            usageSource = "Session connection holds of all the pools";
+        } else {
+            meanUsageSeconds = usages > 0 ? (last[USAGE_TIME + 1] - first[USAGE_TIME + 1]) / 1e9 / usages : 0;
+            usageSource = "Hikari usage time, the usages below 1 ms are not measured";
+        }
+        double meanWaitMillis = acquisitions > 0 ? (last[WAIT_TIME + 1] - first[WAIT_TIME + 1]) / 1e6 / acquisitions : 0;
+        double meanConcurrency = arrivalRate * meanUsageSeconds;
+        long peakDemand = percentile(demand, 99);
+
+        // Size for the bursts (the p99 of the demand) but at least for the mean concurrency with some headroom
+        int advisedSize = (int) Math.max(1, Math.max(peakDemand, Math.ceil(meanConcurrency * HEADROOM)));
+        String advice;
+        if (timeouts > 0 || percent(waitingCount, snapshots.size()) > 1) {
+            advice = advisedSize > maxPoolSize
+                    ? "Undersized: threads wait for connections, increase the pool size or reduce the connection hold time"
+                    : "Threads wait for connections during bursts, reduce the connection hold time";
+        } else if (advisedSize * 2 <= maxPoolSize) {
+            advice = "Oversized: the pool could be reduced";
+        } else {
+            advice = "Adequate";
+        }
+
+        Map<String, Object> advisor = new LinkedHashMap<>();
+        advisor.put("acquisitionsPerSecond", round(arrivalRate));
+        advisor.put("meanUsageMillis", round(meanUsageSeconds * 1000));
+        advisor.put("meanUsageSource", usageSource);
+        advisor.put("meanWaitMillis", round(meanWaitMillis));
+        advisor.put("timeouts", timeouts);
+        advisor.put("meanConcurrency", round(meanConcurrency));
+        advisor.put("p99Demand", peakDemand);
+        advisor.put("currentMaxPoolSize", maxPoolSize);
+        advisor.put("advisedPoolSize", advisedSize);
+        advisor.put("advice", advice);
+        if (instanceCount > 1 || databaseMaxConnections > 0) {
+            advisor.put("instanceCount", instanceCount);
+            advisor.put("advisedTotalConnections", advisedSize * instanceCount);
+            if (databaseMaxConnections > 0 && advisedSize * instanceCount > databaseMaxConnections) {
+                advisor.put("databaseLimitedPoolSize", Math.max(1, databaseMaxConnections / instanceCount));
+            }
+        }
+        report.put("advisor", advisor);
+        return report;
+    }
+
+    private static long[] column(List<long[]> snapshots, int index) {
+        long[] column = new long[snapshots.size()];
+        for (int i = 0; i < column.length; i++) {
+            column[i] = snapshots.get(i)[index + 1];
+        }
+        return column;
+    }
+
+    private static Map<String, Object> getGaugeReport(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("avg", round((double) sum / values.length));
+        report.put("p50", percentile(values, 50));
+        report.put("p99", percentile(values, 99));
+        report.put("max", percentile(values, 100));
+        return report;
+    }
+
+    private static long percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double percent(int count, int total) {
+        return round(count * 100.0 / total);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.adeliosys.sample;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.hibernate.stat.Statistics;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * The Hibernate statistics and the connection pool gauges periodically sampled by {@link StatisticsSampler}.
+ * Counters are monotonic, so they are reported as deltas and rates, while gauges are reported as min, max and average.
+ */
+public enum SampledMetric {
+
+    SESSIONS_OPENED("sessionsOpened", Statistics::getSessionOpenCount),
+    SESSIONS_CLOSED("sessionsClosed", Statistics::getSessionCloseCount),
+    TRANSACTIONS("transactions", Statistics::getTransactionCount),
+    SUCCESSFUL_TRANSACTIONS("successfulTransactions", Statistics::getSuccessfulTransactionCount),
+    OPTIMISTIC_FAILURES("optimisticFailures", Statistics::getOptimisticFailureCount),
+    FLUSHES("flushes", Statistics::getFlushCount),
+    CONNECTIONS_OBTAINED("connectionsObtained", Statistics::getConnectCount),
+    STATEMENTS_PREPARED("statementsPrepared", Statistics::getPrepareStatementCount),
+    STATEMENTS_CLOSED("statementsClosed", Statistics::getCloseStatementCount),
+    ENTITY_FETCHES("entityFetches", Statistics::getEntityFetchCount),
+    ENTITY_LOADS("entityLoads", Statistics::getEntityLoadCount),
+    ENTITY_INSERTS("entityInserts", Statistics::getEntityInsertCount),
+    ENTITY_UPDATES("entityUpdates", Statistics::getEntityUpdateCount),
+    ENTITY_DELETES("entityDeletes", Statistics::getEntityDeleteCount),
+    COLLECTION_FETCHES("collectionFetches", Statistics::getCollectionFetchCount),
+    COLLECTION_LOADS("collectionLoads", Statistics::getCollectionLoadCount),
+    QUERY_EXECUTIONS("queryExecutions", Statistics::getQueryExecutionCount),
+    SECOND_LEVEL_CACHE_HITS("secondLevelCacheHits", Statistics::getSecondLevelCacheHitCount),
+    SECOND_LEVEL_CACHE_MISSES("secondLevelCacheMisses", Statistics::getSecondLevelCacheMissCount),
+    SECOND_LEVEL_CACHE_PUTS("secondLevelCachePuts", Statistics::getSecondLevelCachePutCount),
+    QUERY_CACHE_HITS("queryCacheHits", Statistics::getQueryCacheHitCount),
+    QUERY_CACHE_MISSES("queryCacheMisses", Statistics::getQueryCacheMissCount),
+    TOTAL_CONNECTIONS("totalConnections", null, HikariPoolMXBean::getTotalConnections),
+    ACTIVE_CONNECTIONS("activeConnections", null, HikariPoolMXBean::getActiveConnections),
+    IDLE_CONNECTIONS("idleConnections", null, HikariPoolMXBean::getIdleConnections),
+    THREADS_WAITING("threadsWaiting", null, HikariPoolMXBean::getThreadsAwaitingConnection);
+
+    private final String label;
+
+    private final ToLongFunction<Statistics> statisticsExtractor;
+
+    private final ToLongFunction<HikariPoolMXBean> poolExtractor;
+
+    SampledMetric(String label, ToLongFunction<Statistics> statisticsExtractor) {
+        this(label, statisticsExtractor, null);
+    }
+
+    SampledMetric(String label, ToLongFunction<Statistics> statisticsExtractor, ToLongFunction<HikariPoolMXBean> poolExtractor) {
+        this.label = label;
+        this.statisticsExtractor = statisticsExtractor;
+        this.poolExtractor = poolExtractor;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public boolean isGauge() {
+        return poolExtractor != null;
+    }
+
+    public long extract(Statistics statistics, HikariPoolMXBean pool) {
+        if (statisticsExtractor != null) {
+            return statisticsExtractor.applyAsLong(statistics);
+        }
+        return pool != null ? poolExtractor.applyAsLong(pool) : 0;
+    }
+}
@@ -0,0 +1,169 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.EntityCountRegistry;
+import com.adeliosys.sample.model.Author;
+import com.adeliosys.sample.model.Book;
+import org.hibernate.Cache;
+import org.hibernate.CacheMode;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replace the library content by generated authors and books.
+ * <p>
+ * The entities use pooled sequence ids, so the inserts are sent in JDBC batches (IDENTITY ids would disable them).
+ * The persistence context is flushed and cleared every "batch size" authors so that its size stays bounded.
+ * The progress is logged using the JDBC batch counters of the custom Hibernate session metrics logger.
+ * The bulk deletes bypass the Hibernate events, so their row counts are applied to the {@link EntityCountRegistry}
+ * once the transaction is committed.
+ * <p>
+ * The second level cache is ignored by the load, so the inserts do not put nor soft-lock cache entries, and the entity,
+ * collection and query regions are evicted after the bulk deletes and again once the transaction is committed.
+ */
+@Service
+public class SeedDataLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeedDataLoader.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize;
+
+    @Transactional
+    public Map<String, Object> load(int authorCount, int booksPerAuthor) {
+        if (authorCount < 0 || booksPerAuthor < 0) {
+            throw new IllegalArgumentException("The number of authors and books per author must be positive or zero");
+        }
+
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        CacheMode previousCacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.IGNORE);
+        try {
+            return load(session, authorCount, booksPerAuthor);
+        } finally {
+            session.setCacheMode(previousCacheMode);
+        }
+    }
+
+    private Map<String, Object> load(SessionImplementor session, int authorCount, int booksPerAuthor) {
+        long start = System.nanoTime();
+
+        // Bulk deletes, to avoid loading the existing entities. They use JDBC, since the cleanup of a Hibernate bulk
+        // delete would clear the cache regions at commit time and expire the soft locks of the inserted collections.
+        int deletedBookCount = session.doReturningWork(connection -> deleteAll(connection, session, Book.class));
+        int deletedAuthorCount = session.doReturningWork(connection -> deleteAll(connection, session, Author.class));
+        entityManager.clear();
+        Cache cache = session.getFactory().getCache();
+        evictCaches(cache);
+        session.getActionQueue().registerProcess((success, completedSession) -> {
+            if (success) {
+                EntityCountRegistry.getInstance().add(Book.class.getName(), -deletedBookCount);
+                EntityCountRegistry.getInstance().add(Author.class.getName(), -deletedAuthorCount);
+            }
+        });
+
+        // When available, the custom listener provides the JDBC batch metrics and must not flag the repeated inserts
+        CustomSessionEventListener listener = CustomSessionEventListener.current();
+        if (listener != null) {
+            listener.disableStatementTracking();
+        }
+
+        long rowCount = 0;
+        long nextProgress = authorCount / 10;
+        for (int i = 0; i < authorCount; i++) {
+            String suffix = getNameSuffix(i);
+            // Without a books collection, the flush has no collection action that would soft-lock its cache entry
+            Author author = new Author("Author " + suffix);
+            author.setBooks(null);
+            entityManager.persist(author);
+            for (int j = 1; j <= booksPerAuthor; j++) {
+                Book book = new Book("Book " + suffix + j);
+                book.setAuthor(author);
+                entityManager.persist(book);
+            }
+            rowCount += 1 + booksPerAuthor;
+
+            if ((i + 1) % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+
+                if (i + 1 >= nextProgress && nextProgress > 0) {
+                    logProgress(i + 1, authorCount, rowCount, start, listener);
+                    nextProgress += authorCount / 10;
+                }
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        // Evict again once committed, the entries cached meanwhile by other sessions may be stale,
+        // after the soft locks of the inserted collections are released since this process is registered last
+        session.getActionQueue().registerProcess((success, completedSession) -> evictCaches(cache));
+
+        long elapsedTime = System.nanoTime() - start;
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("authors", authorCount);
+        report.put("books", (long) authorCount * booksPerAuthor);
+        report.put("rows", rowCount);
+        report.put("elapsedMs", elapsedTime / 1_000_000);
+        report.put("rowsPerSecond", elapsedTime > 0 ? rowCount * 1_000_000_000L / elapsedTime : 0);
+        if (listener != null) {
+            report.put("jdbcBatches", listener.getJdbcExecuteBatchCount());
+            report.put("jdbcBatchTimeMs", listener.getJdbcExecuteBatchTime() / 1_000_000);
+            report.put("jdbcStatements", listener.getJdbcExecuteStatementCount());
+        }
+        return report;
+    }
+
+    private static int deleteAll(Connection connection, SessionImplementor session, Class<?> entityClass) throws SQLException {
+        String tableName = ((AbstractEntityPersister) session.getFactory().getMappingMetamodel()
+                .getEntityDescriptor(entityClass)).getTableName();
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate("delete from " + tableName);
+        }
+    }
+
+    private static void evictCaches(Cache cache) {
+        cache.evictEntityData(Book.class);
+        cache.evictEntityData(Author.class);
+        cache.evictCollectionData(Author.class.getName() + ".books");
+        cache.evictQueryRegions();
+    }
+
+    private void logProgress(int loadedAuthorCount, int authorCount, long rowCount, long start, CustomSessionEventListener listener) {
+        long elapsedTime = System.nanoTime() - start;
+        long rowsPerSecond = elapsedTime > 0 ? rowCount * 1_000_000_000L / elapsedTime : 0;
+        if (listener != null) {
+            LOGGER.info("Loaded {}/{} authors, {} rows/s, {} JDBC batches executed in {} ms",
+                    loadedAuthorCount, authorCount, rowsPerSecond,
+                    listener.getJdbcExecuteBatchCount(), listener.getJdbcExecuteBatchTime() / 1_000_000);
+        } else {
+            LOGGER.info("Loaded {}/{} authors, {} rows/s", loadedAuthorCount, authorCount, rowsPerSecond);
+        }
+    }
+
+    /**
+     * Return a name suffix such as "A", "B", ..., "Z", "AA", "AB", etc.
+     */
+    static String getNameSuffix(int index) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = index + 1; i > 0; i = (i - 1) / 26) {
+            buffer.append((char) ('A' + (i - 1) % 26));
+        }
+        return buffer.reverse().toString();
+    }
+}
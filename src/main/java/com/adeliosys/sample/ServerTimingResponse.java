@@ -0,0 +1,218 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.RequestMetrics;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * A response that adds a Server-Timing header with the persistence cost of the request, i.e. the time spent
+ * to acquire connections, to prepare statements, to execute statements and batches and to flush, and the number
+ * of executed statements and batches. The durations are disjoint, except the flush that includes the statements
+ * it executes.
+ * <p>
+ * The cost includes the ended sessions, from the {@link RequestMetrics}, and the sessions still open by the current
+ * thread, from the live counters of their {@link CustomSessionEventListener}. Since headers cannot be changed once
+ * the response is committed, the header is set when the body starts to be written, then updated on each flush and
+ * when the request ends, as long as the response is not committed. So a streamed response reports the cost
+ * up to its first flush.
+ */
+public class ServerTimingResponse extends HttpServletResponseWrapper {
+
+    private static final String HEADER = "Server-Timing";
+
+    private final RequestMetrics requestMetrics;
+
+    private boolean bodyStarted;
+
+    private ServletOutputStream outputStream;
+
+    private PrintWriter writer;
+
+    public ServerTimingResponse(HttpServletResponse response, RequestMetrics requestMetrics) {
+        super(response);
+        this.requestMetrics = requestMetrics;
+    }
+
+    /**
+     * Set or update the header, unless the response is already committed.
+     */
+    public void updateHeader() {
+        if (!isCommitted()) {
+            setHeader(HEADER, formatHeader());
+        }
+    }
+
+    private void bodyStarted() {
+        if (!bodyStarted) {
+            bodyStarted = true;
+            updateHeader();
+        }
+    }
+
+    private String formatHeader() {
+        long statementCount = requestMetrics.getStatementCount();
+        long batchCount = requestMetrics.getBatchCount();
+        long connectionWaitTime = requestMetrics.getConnectionWaitTime();
+        long prepareTime = requestMetrics.getPrepareTime();
+        long executionTime = requestMetrics.getExecutionTime();
+        long flushTime = requestMetrics.getFlushTime();
+        for (CustomSessionEventListener listener = CustomSessionEventListener.current(); listener != null;
+             listener = listener.getPrevious()) {
+            statementCount += listener.getJdbcExecuteStatementCount();
+            batchCount += listener.getJdbcExecuteBatchCount();
+            connectionWaitTime += listener.getJdbcConnectionAcquisitionTime();
+            prepareTime += listener.getJdbcPrepareStatementTime();
+            executionTime += listener.getJdbcExecuteStatementTime() + listener.getJdbcExecuteBatchTime();
+            flushTime += listener.getFlushTime();
+        }
+
+        StringBuilder builder = new StringBuilder(128);
+        appendDuration(builder.append("db-acquire;dur="), connectionWaitTime);
+        appendDuration(builder.append(", db-prepare;dur="), prepareTime);
+        appendDuration(builder.append(", db-exec;dur="), executionTime);
+        appendDuration(builder.append(", flush;dur="), flushTime);
+        return builder.append(", statements;desc=\"").append(statementCount).append(" executed, ")
+                .append(batchCount).append(" batches\"").toString();
+    }
+
+    /**
+     * Append a duration in ns as ms with 3 decimals, as expected by the Server-Timing syntax.
+     */
+    private static void appendDuration(StringBuilder builder, long duration) {
+        long micros = duration / 1000;
+        long fraction = micros % 1000;
+        builder.append(micros / 1000).append('.');
+        if (fraction < 100) {
+            builder.append(fraction < 10 ? "00" : "0");
+        }
+        builder.append(fraction);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new TimingOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new TimingWriter(super.getWriter()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        updateHeader();
+        super.flushBuffer();
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        updateHeader();
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        updateHeader();
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        updateHeader();
+        super.sendRedirect(location);
+    }
+
+    private class TimingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+
+        private TimingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            bodyStarted();
+            delegate.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bodyStarted();
+            delegate.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            updateHeader();
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            updateHeader();
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+
+    private class TimingWriter extends Writer {
+
+        private final PrintWriter delegate;
+
+        private TimingWriter(PrintWriter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int c) {
+            bodyStarted();
+            delegate.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            bodyStarted();
+            delegate.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            bodyStarted();
+            delegate.write(str, off, len);
+        }
+
+        @Override
+        public void flush() {
+            updateHeader();
+            delegate.flush();
+        }
+
+        @Override
+        public void close() {
+            updateHeader();
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.metrics.CompactHistogram;
+import com.adeliosys.sample.metrics.HistogramSnapshot;
+import com.adeliosys.sample.metrics.SessionMetricsRegistry;
+import com.adeliosys.sample.metrics.StatisticsSnapshot;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build the {@link StatisticsSnapshot} of this node, and merge it with the snapshots fetched from the configured
+ * peers to report fleet-wide statistics.
+ * <p>
+ * The peers are fetched in parallel, each with a timeout, and a peer that fails or is too slow is reported
+ * but does not prevent the others from being merged.
+ */
+@Component
+public class StatisticsAggregator {
+
+    public static final String SNAPSHOT_PATH = "/statistics-snapshot";
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private StatisticsSampler statisticsSampler;
+
+    @Autowired
+    private Environment environment;
+
+    @Value("${monitoring.aggregator.peers:}")
+    private List<String> peers;
+
+    @Value("${monitoring.aggregator.timeout:2000}")
+    private long timeout;
+
+    @Value("${monitoring.aggregator.node-name:}")
+    private String nodeName;
+
+    private Statistics statistics;
+
+    private HttpClient httpClient;
+
+    @PostConstruct
+    public void init() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(timeout)).build();
+    }
+
+    private String getNodeName() {
+        if (nodeName.isEmpty()) {
+            try {
+                nodeName = InetAddress.getLocalHost().getHostName() + ":" + environment.getProperty("local.server.port");
+            } catch (UnknownHostException e) {
+                nodeName = "localhost:" + environment.getProperty("local.server.port");
+            }
+        }
+        return nodeName;
+    }
+
+    /**
+     * Return the cumulative statistics of this node.
+     */
+    public StatisticsSnapshot createLocalSnapshot() {
+        StatisticsSnapshot snapshot = new StatisticsSnapshot(getNodeName(), System.currentTimeMillis());
+        statisticsSampler.addTo(snapshot);
+        SessionMetricsRegistry.getInstance().addTo(snapshot);
+
+        for (String entityName : statistics.getEntityNames()) {
+            EntityStatistics entityStatistics = statistics.getEntityStatistics(entityName);
+            snapshot.addCounter("entity." + entityName + ".loads", entityStatistics.getLoadCount());
+            snapshot.addCounter("entity." + entityName + ".fetches", entityStatistics.getFetchCount());
+            snapshot.addCounter("entity." + entityName + ".inserts", entityStatistics.getInsertCount());
+            snapshot.addCounter("entity." + entityName + ".updates", entityStatistics.getUpdateCount());
+            snapshot.addCounter("entity." + entityName + ".deletes", entityStatistics.getDeleteCount());
+        }
+
+        if (statistics instanceof CustomStatistics customStatistics) {
+            customStatistics.getCustomQueryStatistics().forEach((query, queryStatistics) -> {
+                snapshot.addHistogram(StatisticsSnapshot.QUERIES, query, queryStatistics.getExecutionTimes().snapshot());
+                snapshot.addHistogram(StatisticsSnapshot.QUERY_ROWS, query, queryStatistics.getExecutionRows().snapshot());
+            });
+            addHistograms(snapshot, StatisticsSnapshot.ENTITIES, customStatistics.getEntityLoadTimes());
+            addHistograms(snapshot, StatisticsSnapshot.COLLECTIONS, customStatistics.getCollectionLoadTimes());
+        }
+        return snapshot;
+    }
+
+    private static void addHistograms(StatisticsSnapshot snapshot, String group, Map<String, CompactHistogram> histograms) {
+        histograms.forEach((name, histogram) -> snapshot.addHistogram(group, name, histogram.snapshot()));
+    }
+
+    /**
+     * Fetch the snapshot of a peer, for example "http://host:8080".
+     */
+    private CompletableFuture<StatisticsSnapshot> fetchSnapshot(String peer) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(peer + SNAPSHOT_PATH))
+                .timeout(Duration.ofMillis(timeout))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new CompletionException(new IOException("HTTP status " + response.statusCode()));
+                    }
+                    try {
+                        return StatisticsSnapshot.fromBytes(response.body());
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .orTimeout(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Merge the snapshots of this node and of the peers, then report the counters and, for each group,
+     * the top histograms by total value. Times are in μs, except the query times that are in ms.
+     */
+    public Map<String, Object> getFleetReport(int top) {
+        if (top < 1) {
+            throw new IllegalArgumentException("The top must be positive");
+        }
+
+        long start = System.nanoTime();
+        List<CompletableFuture<StatisticsSnapshot>> futures = new ArrayList<>();
+        for (String peer : peers) {
+            futures.add(fetchSnapshot(peer));
+        }
+
+        StatisticsSnapshot merged = createLocalSnapshot();
+        List<Map<String, Object>> nodes = new ArrayList<>();
+        nodes.add(getNodeReport(getNodeName(), merged, null));
+        for (int i = 0; i < peers.size(); i++) {
+            try {
+                StatisticsSnapshot snapshot = futures.get(i).join();
+                merged = merged.merge(snapshot);
+                nodes.add(getNodeReport(peers.get(i), snapshot, null));
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                String message = cause.getClass().getSimpleName() + (cause.getMessage() != null ? ": " + cause.getMessage() : "");
+                nodes.add(getNodeReport(peers.get(i), null, message));
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mergedNodes", merged.getNodeCount());
+        report.put("failedNodes", peers.size() + 1 - merged.getNodeCount());
+        report.put("aggregationTime", (System.nanoTime() - start) / 1_000_000);
+        report.put("nodes", nodes);
+        report.put("counters", merged.getCounters());
+        for (String group : List.of(StatisticsSnapshot.PHASES, StatisticsSnapshot.QUERIES, StatisticsSnapshot.QUERY_ROWS,
+                StatisticsSnapshot.ENTITIES, StatisticsSnapshot.COLLECTIONS)) {
+            report.put(group, getGroupReport(merged.getHistograms(group), getDivisor(group), top));
+        }
+        return report;
+    }
+
+    private static Map<String, Object> getNodeReport(String node, StatisticsSnapshot snapshot, String error) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("node", node);
+        if (snapshot != null) {
+            report.put("name", snapshot.getNode());
+            report.put("timestamp", snapshot.getTimestamp());
+        } else {
+            report.put("error", error);
+        }
+        return report;
+    }
+
+    private static long getDivisor(String group) {
+        return switch (group) {
+            case StatisticsSnapshot.QUERIES, StatisticsSnapshot.QUERY_ROWS -> 1;
+            default -> 1000;
+        };
+    }
+
+    private static Map<String, Object> getGroupReport(Map<String, HistogramSnapshot> histograms, long divisor, int top) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        histograms.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, HistogramSnapshot> e) -> e.getValue().getSum()).reversed())
+                .limit(top)
+                .forEach(e -> {
+                    HistogramSnapshot snapshot = e.getValue();
+                    Map<String, Object> histogramReport = new LinkedHashMap<>();
+                    histogramReport.put("count", snapshot.getCount());
+                    histogramReport.put("total", snapshot.getSum() / divisor);
+                    histogramReport.put("mean", snapshot.getMean() / divisor);
+                    histogramReport.put("p50", snapshot.getValueAtPercentile(50) / divisor);
+                    histogramReport.put("p99", snapshot.getValueAtPercentile(99) / divisor);
+                    histogramReport.put("p999", snapshot.getValueAtPercentile(99.9) / divisor);
+                    histogramReport.put("max", snapshot.getMax() / divisor);
+                    report.put(e.getKey(), histogramReport);
+                });
+        return report;
+    }
+}
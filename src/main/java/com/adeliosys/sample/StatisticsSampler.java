@@ -0,0 +1,247 @@
+package com.adeliosys.sample;
+
+import com.adeliosys.sample.journal.StatisticsJournal;
+import com.adeliosys.sample.metrics.Histogram;
+import com.adeliosys.sample.metrics.SessionMetricsRegistry;
+import com.adeliosys.sample.metrics.SessionPhase;
+import com.adeliosys.sample.metrics.SnapshotRingBuffer;
+import com.adeliosys.sample.metrics.StatisticsSnapshot;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Periodically copy the Hibernate statistics and the connection pool gauges into a ring buffer,
+ * to report rates and deltas over recent time windows without ever clearing the Hibernate statistics.
+ * The gauges are sampled for each pool and labelled with the pool name, for example "replica.activeConnections".
+ * <p>
+ * When enabled, each sample is also appended to a {@link StatisticsJournal} with the session metrics and their
+ * histograms, to keep a longer history that survives the restarts.
+ */
+@Component
+public class StatisticsSampler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatisticsSampler.class);
+
+    /**
+     * The largest supported time window, in minutes.
+     */
+    private static final int MAX_WINDOW = 15;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private List<HikariDataSource> dataSources;
+
+    @Value("${monitoring.sampler.interval:1000}")
+    private long interval;
+
+    @Value("${monitoring.journal.enabled:false}")
+    private boolean journalEnabled;
+
+    @Value("${monitoring.journal.directory:logs/journal}")
+    private String journalDirectory;
+
+    @Value("${monitoring.journal.segment-size:16}")
+    private int journalSegmentSize;
+
+    @Value("${monitoring.journal.max-segments:8}")
+    private int journalMaxSegments;
+
+    private Statistics statistics;
+
+    /**
+     * The sampled series: each Hibernate statistic, then each pool gauge of each pool.
+     */
+    private Series[] series;
+
+    private SnapshotRingBuffer buffer;
+
+    private long[] values;
+
+    private StatisticsJournal journal;
+
+    private long[] journalValues;
+
+    private long[][] histogramCounts;
+
+    /**
+     * A sampled metric, with the pool it is sampled from for a pool gauge.
+     */
+    private record Series(String label, SampledMetric metric, HikariDataSource dataSource) {
+
+        private long extract(Statistics statistics) {
+            return metric.extract(statistics, dataSource != null ? dataSource.getHikariPoolMXBean() : null);
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        List<Series> allSeries = new ArrayList<>();
+        for (SampledMetric metric : SampledMetric.values()) {
+            if (metric.isGauge()) {
+                for (HikariDataSource dataSource : dataSources) {
+                    allSeries.add(new Series(dataSource.getPoolName() + "." + metric.getLabel(), metric, dataSource));
+                }
+            } else {
+                allSeries.add(new Series(metric.getLabel(), metric, null));
+            }
+        }
+        series = allSeries.toArray(new Series[0]);
+        values = new long[series.length];
+        buffer = new SnapshotRingBuffer((int) (MAX_WINDOW * 60_000L / interval) + 2, series.length);
+        if (journalEnabled) {
+            initJournal();
+        }
+    }
+
+    /**
+     * Create the journal: the sampled metrics, then the session counters, then the session phase histograms.
+     */
+    private void initJournal() throws IOException {
+        SessionPhase[] phases = SessionPhase.values();
+        int labelCount = series.length + 3 + 2 * phases.length;
+        String[] labels = new String[labelCount];
+        boolean[] gauges = new boolean[labelCount];
+        for (int i = 0; i < series.length; i++) {
+            labels[i] = series[i].label();
+            gauges[i] = series[i].metric().isGauge();
+        }
+        labels[series.length] = "sessions";
+        labels[series.length + 1] = "flushedEntities";
+        labels[series.length + 2] = "flushedCollections";
+        String[] histogramLabels = new String[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            labels[series.length + 3 + 2 * i] = phases[i].getLabel() + "Count";
+            labels[series.length + 4 + 2 * i] = phases[i].getLabel() + "Time";
+            histogramLabels[i] = phases[i].getLabel();
+        }
+
+        journalValues = new long[labelCount];
+        histogramCounts = new long[phases.length][Histogram.BUCKET_COUNT];
+        journal = new StatisticsJournal(Path.of(journalDirectory), journalSegmentSize * 1024 * 1024, journalMaxSegments,
+                labels, gauges, histogramLabels, Histogram.BUCKET_COUNT);
+        LOGGER.info("Journaling the statistics to '{}'", Path.of(journalDirectory).toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        StatisticsJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.force();
+        }
+    }
+
+    @Scheduled(fixedRateString = "${monitoring.sampler.interval:1000}")
+    public void sample() {
+        for (int i = 0; i < series.length; i++) {
+            values[i] = series[i].extract(statistics);
+        }
+        long timestamp = System.currentTimeMillis();
+        buffer.add(timestamp, values);
+
+        if (journal != null) {
+            System.arraycopy(values, 0, journalValues, 0, series.length);
+            SessionMetricsRegistry.getInstance().copyTo(journalValues, series.length, histogramCounts);
+            try {
+                journal.append(timestamp, journalValues, histogramCounts);
+            } catch (IOException e) {
+                LOGGER.warn("Cannot append to the statistics journal, disabling it", e);
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * Add the current values of the sampled metrics to a statistics snapshot.
+     */
+    public void addTo(StatisticsSnapshot snapshot) {
+        for (Series s : series) {
+            snapshot.addCounter(s.label(), s.extract(statistics));
+        }
+    }
+
+    /**
+     * Return the overhead of the statistics journal.
+     */
+    public Map<String, Object> getJournalReport() {
+        StatisticsJournal currentJournal = journal;
+        if (currentJournal == null) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("message", journalEnabled ? "The journal failed, see the logs" : "The journal is disabled");
+            return report;
+        }
+        return currentJournal.getReport();
+    }
+
+    /**
+     * Return the deltas and per second rates of the counters, and the min, max and average of the gauges,
+     * over the last given minutes.
+     */
+    public Map<String, Object> getReport(int minutes) {
+        if (minutes < 1 || minutes > MAX_WINDOW) {
+            throw new IllegalArgumentException("The window must be between 1 and " + MAX_WINDOW + " minutes");
+        }
+
+        List<long[]> snapshots = buffer.getSnapshotsSince(System.currentTimeMillis() - minutes * 60_000L - interval);
+        Map<String, Object> report = new LinkedHashMap<>();
+        if (snapshots.size() < 2) {
+            report.put("message", "Not enough samples yet");
+            return report;
+        }
+
+        long[] first = snapshots.get(0);
+        long[] last = snapshots.get(snapshots.size() - 1);
+        double seconds = (last[0] - first[0]) / 1000.0;
+        report.put("windowSeconds", seconds);
+        report.put("samples", snapshots.size());
+
+        for (int i = 0; i < series.length; i++) {
+            Map<String, Object> metricReport = new LinkedHashMap<>();
+            if (series[i].metric().isGauge()) {
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                long sum = 0;
+                for (long[] snapshot : snapshots) {
+                    min = Math.min(min, snapshot[i + 1]);
+                    max = Math.max(max, snapshot[i + 1]);
+                    sum += snapshot[i + 1];
+                }
+                metricReport.put("current", last[i + 1]);
+                metricReport.put("min", min);
+                metricReport.put("max", max);
+                metricReport.put("avg", Math.round(sum * 100.0 / snapshots.size()) / 100.0);
+            } else {
+                long delta = 0;
+                for (int j = 1; j < snapshots.size(); j++) {
+                    long increment = snapshots.get(j)[i + 1] - snapshots.get(j - 1)[i + 1];
+                    // A negative increment means that the statistics were cleared
+                    delta += increment >= 0 ? increment : snapshots.get(j)[i + 1];
+                }
+                metricReport.put("delta", delta);
+                metricReport.put("perSecond", Math.round(delta * 100.0 / seconds) / 100.0);
+            }
+            report.put(series[i].label(), metricReport);
+        }
+
+        return report;
+    }
+}
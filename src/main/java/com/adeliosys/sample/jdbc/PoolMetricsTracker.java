@@ -0,0 +1,126 @@
+package com.adeliosys.sample.jdbc;
+
+import com.adeliosys.sample.metrics.Histogram;
+import com.adeliosys.sample.metrics.HistogramSnapshot;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hikari metrics tracker recording the connection wait, usage and creation times of a pool in histograms,
+ * and cumulative counters sampled by the {@link com.adeliosys.sample.PoolSampler}.
+ * <p>
+ * Hikari measures the wait (i.e. acquisition) time in nanoseconds, but the usage and creation times in milliseconds.
+ * All the times are recorded in nanoseconds.
+ */
+public class PoolMetricsTracker implements IMetricsTracker {
+
+    private static final Map<String, PoolMetricsTracker> INSTANCES = new ConcurrentHashMap<>();
+
+    private static final PoolMetricsTracker EMPTY = new PoolMetricsTracker();
+
+    private final Histogram waitTimes = new Histogram();
+
+    private final Histogram usageTimes = new Histogram();
+
+    private final Histogram creationTimes = new Histogram();
+
+    private final LongAdder acquisitionCount = new LongAdder();
+
+    private final LongAdder waitTime = new LongAdder();
+
+    private final LongAdder usageCount = new LongAdder();
+
+    private final LongAdder usageTime = new LongAdder();
+
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private PoolMetricsTracker() {
+    }
+
+    /**
+     * Return the tracker of a pool, or an empty tracker if the pool is not started yet.
+     */
+    public static PoolMetricsTracker getInstance(String poolName) {
+        return INSTANCES.getOrDefault(poolName, EMPTY);
+    }
+
+    /**
+     * Return a factory to set in the Hikari configuration, before the pool is started.
+     */
+    public static MetricsTrackerFactory factory() {
+        return (poolName, poolStats) -> INSTANCES.computeIfAbsent(poolName, k -> new PoolMetricsTracker());
+    }
+
+    @Override
+    public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+        creationTimes.record(connectionCreatedMillis * 1_000_000);
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        acquisitionCount.increment();
+        waitTime.add(elapsedAcquiredNanos);
+        waitTimes.record(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+        usageCount.increment();
+        usageTime.add(elapsedBorrowedMillis * 1_000_000);
+        usageTimes.record(elapsedBorrowedMillis * 1_000_000);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+        timeoutCount.increment();
+    }
+
+    public long getAcquisitionCount() {
+        return acquisitionCount.sum();
+    }
+
+    public long getWaitTime() {
+        return waitTime.sum();
+    }
+
+    public long getUsageCount() {
+        return usageCount.sum();
+    }
+
+    public long getUsageTime() {
+        return usageTime.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * Return the percentiles of the wait, usage and creation times since the start. Times are in microseconds.
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("acquisitions", acquisitionCount.sum());
+        report.put("timeouts", timeoutCount.sum());
+        report.put("waitTime", getHistogramReport(waitTimes.snapshot()));
+        report.put("usageTime", getHistogramReport(usageTimes.snapshot()));
+        report.put("creationTime", getHistogramReport(creationTimes.snapshot()));
+        return report;
+    }
+
+    private static Map<String, Object> getHistogramReport(HistogramSnapshot snapshot) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("count", snapshot.getCount());
+        report.put("mean", snapshot.getMean() / 1000);
+        report.put("p50", snapshot.getValueAtPercentile(50) / 1000);
+        report.put("p99", snapshot.getValueAtPercentile(99) / 1000);
+        report.put("p999", snapshot.getValueAtPercentile(99.9) / 1000);
+        report.put("max", snapshot.getMax() / 1000);
+        return report;
+    }
+}
@@ -0,0 +1,39 @@
+package com.adeliosys.sample.jdbc;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * A data source that sends the connection requests of the read-only transactions to a replica,
+ * and all the other ones to the primary.
+ * <p>
+ * The transaction manager does not expose the read-only flag until the transaction has begun, i.e. after the JPA
+ * provider has acquired its connection, so the flag is set around the begin by {@link ReadOnlyRoutingTransactionManager}.
+ */
+public class ReadOnlyRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    public ReadOnlyRoutingDataSource(DataSource primary, DataSource replica) {
+        setTargetDataSources(Map.of(Boolean.FALSE, primary, Boolean.TRUE, replica));
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * Route the connections requested by the current thread to the replica, until {@link #clearReadOnly()} is called.
+     */
+    static void setReadOnly() {
+        READ_ONLY.set(Boolean.TRUE);
+    }
+
+    static void clearReadOnly() {
+        READ_ONLY.remove();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return READ_ONLY.get() == Boolean.TRUE;
+    }
+}
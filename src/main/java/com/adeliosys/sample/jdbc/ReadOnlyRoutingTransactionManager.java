@@ -0,0 +1,29 @@
+package com.adeliosys.sample.jdbc;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * A JPA transaction manager that makes the {@link ReadOnlyRoutingDataSource} route the connection of each read-only
+ * transaction to the replica.
+ * <p>
+ * Hibernate acquires the connection when the transaction begins, to disable the auto-commit. Joined transactions keep
+ * the connection of the outer one, while the connections acquired outside of a transaction go to the primary.
+ */
+public class ReadOnlyRoutingTransactionManager extends JpaTransactionManager {
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        if (!definition.isReadOnly()) {
+            super.doBegin(transaction, definition);
+            return;
+        }
+
+        ReadOnlyRoutingDataSource.setReadOnly();
+        try {
+            super.doBegin(transaction, definition);
+        } finally {
+            ReadOnlyRoutingDataSource.clearReadOnly();
+        }
+    }
+}
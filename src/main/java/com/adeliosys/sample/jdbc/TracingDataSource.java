@@ -0,0 +1,38 @@
+package com.adeliosys.sample.jdbc;
+
+import com.adeliosys.sample.metrics.SqlTraceRegistry;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Wrap a data source with lightweight delegating wrappers that time the execution of each JDBC statement
+ * and record it in the {@link SqlTraceRegistry}, with the number of bind parameters and of rows.
+ * <p>
+ * Only the statement creations, the executions and the result set reads and closes are intercepted, by plain
+ * delegating classes rather than reflective proxies, so the other JDBC calls such as the parameter binds cost a
+ * single direct call. Use {@link java.sql.Wrapper#unwrap(Class)} to access the wrapped objects, for example the
+ * Hikari data source.
+ */
+public class TracingDataSource extends DelegatingDataSource {
+
+    private TracingDataSource(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    public static DataSource wrap(DataSource dataSource) {
+        return new TracingDataSource(dataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return new TracingConnection(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return new TracingConnection(obtainTargetDataSource().getConnection(username, password));
+    }
+}
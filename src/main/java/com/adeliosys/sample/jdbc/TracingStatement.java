@@ -0,0 +1,457 @@
+package com.adeliosys.sample.jdbc;
+
+import com.adeliosys.sample.metrics.SqlTraceRegistry;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * A statement that times its executions and records them in the {@link SqlTraceRegistry}, see {@link TracingDataSource}.
+ * <p>
+ * Only the executions, the batches and the result sets are intercepted, the other calls are delegated as is.
+ * The rows of a query are counted while the result set is read, and the execution is recorded when the result set
+ * or the statement is closed, or when the statement is executed again. The reading time is not included.
+ */
+class TracingStatement implements Statement {
+
+    private final Statement delegate;
+
+    private final Connection connection;
+
+    /**
+     * The SQL of a prepared statement, or the first SQL of a batch of a plain statement.
+     */
+    String sql;
+
+    private final boolean prepared;
+
+    /**
+     * The number of bind parameters of a prepared statement.
+     */
+    private final int bindCount;
+
+    private int batchCount;
+
+    // The pending execution of a query, recorded once its rows are read
+
+    private String pendingSql;
+
+    private long pendingTime;
+
+    long pendingRows;
+
+    TracingStatement(Statement delegate, Connection connection, String sql) {
+        this.delegate = delegate;
+        this.connection = connection;
+        this.sql = sql;
+        this.prepared = sql != null;
+        this.bindCount = sql != null ? countParameters(sql) : 0;
+    }
+
+    /**
+     * Record the pending query, then return the start time of an execution.
+     */
+    long start() {
+        recordPending();
+        return System.nanoTime();
+    }
+
+    ResultSet queried(String executedSql, long start, ResultSet resultSet) {
+        setPending(executedSql, System.nanoTime() - start);
+        return new TracingResultSet(resultSet, this);
+    }
+
+    boolean executed(String executedSql, long start, boolean hasResultSet) throws SQLException {
+        long time = System.nanoTime() - start;
+        if (hasResultSet) {
+            // The result set is wrapped by getResultSet
+            setPending(executedSql, time);
+        } else {
+            record(executedSql, time, Math.max(0, delegate.getUpdateCount()), 0);
+        }
+        return hasResultSet;
+    }
+
+    void updated(String executedSql, long start, long rows) {
+        record(executedSql, System.nanoTime() - start, rows, 0);
+    }
+
+    void batchAdded() {
+        batchCount++;
+    }
+
+    private void batchExecuted(long start, long rows) {
+        record(sql, System.nanoTime() - start, rows, batchCount);
+        batchCount = 0;
+        if (!prepared) {
+            sql = null;
+        }
+    }
+
+    private void record(String executedSql, long time, long rows, int batchSize) {
+        SqlTraceRegistry.getInstance().record(executedSql, time, rows, bindCount, batchSize);
+    }
+
+    private void setPending(String executedSql, long time) {
+        pendingSql = executedSql;
+        pendingTime = time;
+        pendingRows = 0;
+    }
+
+    void recordPending() {
+        if (pendingSql != null) {
+            SqlTraceRegistry.getInstance().record(pendingSql, pendingTime, pendingRows, bindCount, 0);
+            pendingSql = null;
+        }
+    }
+
+    /**
+     * Return the number of bind parameters of a SQL statement, i.e. its placeholders outside the string literals.
+     */
+    static int countParameters(String sql) {
+        int count = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '?' && !quoted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        long start = start();
+        return queried(sql, start, delegate.executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        long start = start();
+        int rows = delegate.executeUpdate(sql);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        recordPending();
+        delegate.close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return delegate.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        delegate.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return delegate.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        delegate.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return delegate.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        delegate.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        delegate.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        delegate.setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        long start = start();
+        return executed(sql, start, delegate.execute(sql));
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        ResultSet resultSet = delegate.getResultSet();
+        return resultSet != null && pendingSql != null ? new TracingResultSet(resultSet, this) : resultSet;
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return delegate.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return delegate.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        delegate.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return delegate.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        delegate.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return delegate.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        if (this.sql == null) {
+            this.sql = sql;
+        }
+        batchCount++;
+        delegate.addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        batchCount = 0;
+        delegate.clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        long start = start();
+        int[] counts = delegate.executeBatch();
+        long rows = 0;
+        for (int count : counts) {
+            rows += Math.max(0, count);
+        }
+        batchExecuted(start, rows);
+        return counts;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return delegate.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return delegate.getGeneratedKeys();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = start();
+        int rows = delegate.executeUpdate(sql, autoGeneratedKeys);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long start = start();
+        int rows = delegate.executeUpdate(sql, columnIndexes);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        long start = start();
+        int rows = delegate.executeUpdate(sql, columnNames);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = start();
+        return executed(sql, start, delegate.execute(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        long start = start();
+        return executed(sql, start, delegate.execute(sql, columnIndexes));
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        long start = start();
+        return executed(sql, start, delegate.execute(sql, columnNames));
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return delegate.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return delegate.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        delegate.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return delegate.isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return delegate.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        delegate.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return delegate.getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        long start = start();
+        long[] counts = delegate.executeLargeBatch();
+        long rows = 0;
+        for (long count : counts) {
+            rows += Math.max(0, count);
+        }
+        batchExecuted(start, rows);
+        return counts;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        long start = start();
+        long rows = delegate.executeLargeUpdate(sql);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = start();
+        long rows = delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long start = start();
+        long rows = delegate.executeLargeUpdate(sql, columnIndexes);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        long start = start();
+        long rows = delegate.executeLargeUpdate(sql, columnNames);
+        updated(sql, start, rows);
+        return rows;
+    }
+
+    @Override
+    public String enquoteLiteral(String val) throws SQLException {
+        return delegate.enquoteLiteral(val);
+    }
+
+    @Override
+    public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+        return delegate.enquoteIdentifier(identifier, alwaysQuote);
+    }
+
+    @Override
+    public boolean isSimpleIdentifier(String identifier) throws SQLException {
+        return delegate.isSimpleIdentifier(identifier);
+    }
+
+    @Override
+    public String enquoteNCharLiteral(String val) throws SQLException {
+        return delegate.enquoteNCharLiteral(val);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(delegate) ? iface.cast(delegate) : delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,14 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.BatchExecute")
+@Label("Batch Execute")
+@Description("Execution of a JDBC batch by a Hibernate session")
+public class BatchExecuteEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(BatchExecuteEvent.class);
+}
@@ -0,0 +1,17 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.CacheGet")
+@Label("Cache Get")
+@Description("Lookup of an entry in the second level cache by a Hibernate session")
+public class CacheGetEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(CacheGetEvent.class);
+
+    @Label("Hit")
+    public boolean hit;
+}
@@ -0,0 +1,14 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.CachePut")
+@Label("Cache Put")
+@Description("Put of an entry in the second level cache by a Hibernate session")
+public class CachePutEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(CachePutEvent.class);
+}
@@ -0,0 +1,14 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.ConnectionAcquisition")
+@Label("Connection Acquisition")
+@Description("Acquisition of a JDBC connection by a Hibernate session")
+public class ConnectionAcquisitionEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(ConnectionAcquisitionEvent.class);
+}
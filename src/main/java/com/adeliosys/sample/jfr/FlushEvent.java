@@ -0,0 +1,20 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.Flush")
+@Label("Flush")
+@Description("Flush of a Hibernate session")
+public class FlushEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(FlushEvent.class);
+
+    @Label("Entities")
+    public int entityCount;
+
+    @Label("Collections")
+    public int collectionCount;
+}
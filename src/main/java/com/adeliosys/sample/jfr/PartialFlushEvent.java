@@ -0,0 +1,20 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.PartialFlush")
+@Label("Partial Flush")
+@Description("Partial flush of a Hibernate session, e.g. before a query")
+public class PartialFlushEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(PartialFlushEvent.class);
+
+    @Label("Entities")
+    public int entityCount;
+
+    @Label("Collections")
+    public int collectionCount;
+}
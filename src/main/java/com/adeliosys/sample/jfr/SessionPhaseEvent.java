@@ -0,0 +1,18 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Base class of the JFR events emitted by the custom session event listener for each Hibernate session phase.
+ * <p>
+ * The events are committed only when the phase lasts longer than the threshold of the recording, 1 ms by default,
+ * and without stack trace, so that they can be left enabled in continuous recordings.
+ */
+@Category({"Hibernate", "Session"})
+@StackTrace(false)
+@Threshold("1 ms")
+public abstract class SessionPhaseEvent extends Event {
+}
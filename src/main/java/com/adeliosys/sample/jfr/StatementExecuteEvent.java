@@ -0,0 +1,14 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.StatementExecute")
+@Label("Statement Execute")
+@Description("Execution of a JDBC statement by a Hibernate session")
+public class StatementExecuteEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(StatementExecuteEvent.class);
+}
@@ -0,0 +1,14 @@
+package com.adeliosys.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.adeliosys.hibernate.StatementPrepare")
+@Label("Statement Prepare")
+@Description("Preparation of a JDBC statement by a Hibernate session")
+public class StatementPrepareEvent extends SessionPhaseEvent {
+
+    public static final EventType TYPE = EventType.getEventType(StatementPrepareEvent.class);
+}
@@ -0,0 +1,273 @@
+package com.adeliosys.sample.journal;
+
+import com.adeliosys.sample.metrics.HistogramSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command line reader of a {@link StatisticsJournal}, that renders the rates of the counters, the min, max and
+ * average of the gauges, and the percentiles of the histograms (in μs) over a time range.
+ * <p>
+ * Arguments are "key=value" pairs:
+ * <ul>
+ *     <li>directory: the journal directory, default is "logs/journal"</li>
+ *     <li>from: the start of the range, as an ISO-8601 instant such as 2023-01-31T10:15:00Z or as a duration
+ *     relative to now such as -15m, -2h or -1d, default is the beginning of the journal</li>
+ *     <li>to: the end of the range, with the same syntax, default is now</li>
+ * </ul>
+ * Run it with for example {@code java -cp target/classes com.adeliosys.sample.journal.JournalReader from=-1h}.
+ */
+public class JournalReader {
+
+    private final long from;
+
+    private final long to;
+
+    private final Map<String, Series> series = new LinkedHashMap<>();
+
+    private final Map<String, long[]> histograms = new LinkedHashMap<>();
+
+    private final Map<String, Long> histogramSums = new HashMap<>();
+
+    private long firstTimestamp = Long.MAX_VALUE;
+
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private long recordCount;
+
+    private long segmentCount;
+
+    private long restartCount;
+
+    /**
+     * The start time of the JVM that wrote the previous record, to detect the restarts that reset the counters.
+     */
+    private long previousStartTime;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid argument '" + arg + "', expecting key=value");
+            }
+            arguments.put(parts[0], parts[1]);
+        }
+
+        long now = System.currentTimeMillis();
+        JournalReader reader = new JournalReader(parseTime(arguments.get("from"), now, Long.MIN_VALUE),
+                parseTime(arguments.get("to"), now, now));
+        reader.read(Path.of(arguments.getOrDefault("directory", "logs/journal")));
+        System.out.print(reader.render());
+    }
+
+    static long parseTime(String value, long now, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.startsWith("-")) {
+            long amount = Long.parseLong(value.substring(1, value.length() - 1));
+            long unit = switch (value.charAt(value.length() - 1)) {
+                case 's' -> 1000L;
+                case 'm' -> 60_000L;
+                case 'h' -> 3_600_000L;
+                case 'd' -> 86_400_000L;
+                default -> throw new IllegalArgumentException("Invalid relative time '" + value + "', expecting for example -15m");
+            };
+            return now - amount * unit;
+        }
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time '" + value + "', expecting an ISO-8601 instant or for example -15m", e);
+        }
+    }
+
+    public JournalReader(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Read the records of all the segments of a journal directory.
+     */
+    public void read(Path directory) throws IOException {
+        for (Path segment : StatisticsJournal.listSegments(directory)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                readSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            segmentCount++;
+        }
+    }
+
+    private void readSegment(ByteBuffer buffer) {
+        if (buffer.remaining() < 16 || buffer.getInt() != StatisticsJournal.MAGIC) {
+            return;
+        }
+        if (buffer.getInt() != StatisticsJournal.VERSION) {
+            return;
+        }
+        long startTime = buffer.getLong();
+        String[] labels = new String[buffer.getInt()];
+        boolean[] gauges = new boolean[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = getString(buffer);
+            gauges[i] = buffer.get() == StatisticsJournal.GAUGE;
+        }
+        String[] histogramLabels = new String[buffer.getInt()];
+        int bucketCount = buffer.getInt();
+        for (int i = 0; i < histogramLabels.length; i++) {
+            histogramLabels[i] = getString(buffer);
+            histograms.computeIfAbsent(histogramLabels[i], k -> new long[bucketCount]);
+        }
+
+        boolean restarted = startTime != previousStartTime;
+        previousStartTime = startTime;
+
+        int position = buffer.position();
+        while (position + 4 <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + length > buffer.limit()) {
+                // End of the segment, or record interrupted by a crash
+                break;
+            }
+            int entryCount = buffer.getInt(position + 4);
+            long timestamp = buffer.getLong(position + 8);
+            int offset = position + StatisticsJournal.RECORD_HEADER_SIZE;
+            boolean inRange = timestamp >= from && timestamp <= to;
+
+            for (int i = 0; i < labels.length; i++) {
+                Series s = series.computeIfAbsent(labels[i], k -> new Series());
+                s.gauge = gauges[i];
+                s.add(buffer.getLong(offset), inRange, restarted);
+                offset += 8;
+            }
+            if (inRange) {
+                for (int i = 0; i < entryCount; i++) {
+                    int index = buffer.getInt(offset);
+                    long count = buffer.getLong(offset + 4);
+                    histograms.get(histogramLabels[index >>> 16])[index & 0xFFFF] += count;
+                    offset += StatisticsJournal.ENTRY_SIZE;
+                }
+                firstTimestamp = Math.min(firstTimestamp, timestamp);
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                recordCount++;
+            }
+            if (restarted) {
+                restartCount++;
+                restarted = false;
+            }
+            position += length;
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Set the sum of the values of a histogram, i.e. the delta of a counter, used to compute its mean.
+     */
+    private void computeHistogramSums() {
+        for (String label : histograms.keySet()) {
+            Series time = series.get(label + "Time");
+            histogramSums.put(label, time != null ? time.delta : 0);
+        }
+    }
+
+    public String render() {
+        StringBuilder builder = new StringBuilder();
+        if (recordCount == 0) {
+            return builder.append("No records in the range, read ").append(segmentCount).append(" segment(s)\n").toString();
+        }
+        double seconds = Math.max(1, lastTimestamp - firstTimestamp) / 1000.0;
+        builder.append(String.format("From %s to %s (%.0f s), %d records in %d segment(s), %d restart(s)%n",
+                Instant.ofEpochMilli(firstTimestamp), Instant.ofEpochMilli(lastTimestamp), seconds, recordCount,
+                segmentCount, Math.max(0, restartCount - 1)));
+
+        builder.append(String.format("%nCounters%n%-32s %14s %12s%n", "", "delta", "per second"));
+        series.forEach((label, s) -> {
+            if (!s.gauge && s.samples > 0) {
+                builder.append(String.format("%-32s %14d %12.2f%n", label, s.delta, s.delta / seconds));
+            }
+        });
+
+        builder.append(String.format("%nGauges%n%-32s %10s %10s %10s%n", "", "min", "max", "avg"));
+        series.forEach((label, s) -> {
+            if (s.gauge && s.samples > 0) {
+                builder.append(String.format("%-32s %10d %10d %10.2f%n", label, s.min, s.max, (double) s.sum / s.samples));
+            }
+        });
+
+        computeHistogramSums();
+        builder.append(String.format("%nPer session times (μs)%n%-32s %10s %10s %10s %10s %10s %10s%n",
+                "", "sessions", "mean", "p50", "p99", "p999", "max"));
+        histograms.forEach((label, counts) -> {
+            if (Arrays.stream(counts).allMatch(c -> c == 0)) {
+                return;
+            }
+            HistogramSnapshot snapshot = HistogramSnapshot.fromCounts(counts, histogramSums.get(label));
+            builder.append(String.format("%-32s %10d %10d %10d %10d %10d %10d%n", label, snapshot.getCount(),
+                    snapshot.getMean() / 1000, snapshot.getValueAtPercentile(50) / 1000,
+                    snapshot.getValueAtPercentile(99) / 1000, snapshot.getValueAtPercentile(99.9) / 1000,
+                    snapshot.getMax() / 1000));
+        });
+        return builder.toString();
+    }
+
+    /**
+     * The aggregation of a series over the range: the sum of the increments for a counter,
+     * the min, max and sum of the values for a gauge.
+     */
+    private static class Series {
+
+        private boolean gauge;
+
+        private boolean hasPrevious;
+
+        private long previous;
+
+        private long delta;
+
+        private long min = Long.MAX_VALUE;
+
+        private long max = Long.MIN_VALUE;
+
+        private long sum;
+
+        private long samples;
+
+        private void add(long value, boolean inRange, boolean restarted) {
+            if (inRange) {
+                samples++;
+                if (gauge) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += value;
+                } else if (restarted) {
+                    // The first record of a JVM counts from zero, like its histogram deltas
+                    delta += value;
+                } else if (hasPrevious) {
+                    long increment = value - previous;
+                    // A negative increment means that the statistics were cleared
+                    delta += increment >= 0 ? increment : value;
+                }
+            }
+            previous = value;
+            hasPrevious = true;
+        }
+    }
+}
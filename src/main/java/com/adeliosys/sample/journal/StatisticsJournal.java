@@ -0,0 +1,276 @@
+package com.adeliosys.sample.journal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Append-only binary journal of statistics snapshots, written to preallocated memory-mapped segment files
+ * so that the history survives a restart or a crash of the JVM, see {@link JournalReader}.
+ * The segments are forced to the storage device when full and by {@link #force()} only, so a crash of the operating
+ * system may lose the records appended since.
+ * <p>
+ * Each record contains the cumulative values of the series and the delta of each histogram since the previous record,
+ * as sparse (bucket, count) pairs. Appending a record only stores into the mapped memory and does not allocate,
+ * except when a segment is full: the next segment is then created and the oldest ones are deleted, so the disk usage
+ * is bounded by the segment size multiplied by the maximum number of segments. The length of a record is written last,
+ * so a record interrupted by a crash is ignored by the reader.
+ * <p>
+ * Segment layout: the header (magic, version, start time, the series labels and kinds, the histogram labels),
+ * then the records (length, number of histogram entries, timestamp, values, then the histogram entries),
+ * then zeros. A single thread appends the records.
+ */
+public class StatisticsJournal {
+
+    static final int MAGIC = 0x484A524E;
+
+    static final int VERSION = 1;
+
+    static final String PREFIX = "statistics-";
+
+    static final String SUFFIX = ".journal";
+
+    static final byte COUNTER = 0;
+
+    static final byte GAUGE = 1;
+
+    /**
+     * The size of the fixed part of a record: length, histogram entry count and timestamp.
+     */
+    static final int RECORD_HEADER_SIZE = 16;
+
+    /**
+     * The size of a histogram entry: the histogram and bucket indexes packed in an int, then the count.
+     */
+    static final int ENTRY_SIZE = 12;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final String[] labels;
+
+    private final boolean[] gauges;
+
+    private final String[] histogramLabels;
+
+    private final int bucketCount;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final long[][] previousCounts;
+
+    private final long[][] deltas;
+
+    private MappedByteBuffer buffer;
+
+    private int position;
+
+    // The overhead counters, written by the appending thread only
+
+    private volatile long appendCount;
+
+    private volatile long appendTime;
+
+    private volatile long maxAppendTime;
+
+    private volatile long writtenBytes;
+
+    private volatile long segmentCount;
+
+    private volatile long droppedCount;
+
+    /**
+     * @param segmentSize     the size of each segment file, in bytes
+     * @param maxSegments     the number of segment files kept, the oldest ones are deleted
+     * @param labels          the labels of the series
+     * @param gauges          whether each series is a gauge, otherwise a monotonic counter
+     * @param histogramLabels the labels of the histograms
+     * @param bucketCount     the number of buckets of each histogram
+     */
+    public StatisticsJournal(Path directory, int segmentSize, int maxSegments, String[] labels, boolean[] gauges,
+                             String[] histogramLabels, int bucketCount) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.labels = labels;
+        this.gauges = gauges;
+        this.histogramLabels = histogramLabels;
+        this.bucketCount = bucketCount;
+        previousCounts = new long[histogramLabels.length][bucketCount];
+        deltas = new long[histogramLabels.length][bucketCount];
+
+        Files.createDirectories(directory);
+        openSegment(startTime);
+    }
+
+    private void openSegment(long timestamp) throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        Path file = directory.resolve(String.format("%s%013d%s", PREFIX, timestamp, SUFFIX));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            // The mapping stays valid once the channel is closed
+            randomAccessFile.setLength(segmentSize);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(startTime);
+        buffer.putInt(labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            putString(labels[i]);
+            buffer.put(gauges[i] ? GAUGE : COUNTER);
+        }
+        buffer.putInt(histogramLabels.length).putInt(bucketCount);
+        for (String histogramLabel : histogramLabels) {
+            putString(histogramLabel);
+        }
+        position = buffer.position();
+        segmentCount++;
+
+        deleteOldSegments();
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private void deleteOldSegments() throws IOException {
+        List<Path> segments = listSegments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    /**
+     * Return the segment files of a directory, from the oldest to the newest.
+     */
+    static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> {
+                        String name = f.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param values          the current values of the series, cumulative for the counters
+     * @param histogramCounts the current cumulative counts of the histograms
+     */
+    public void append(long timestamp, long[] values, long[][] histogramCounts) throws IOException {
+        long start = System.nanoTime();
+
+        int entryCount = computeDeltas(histogramCounts);
+        int length = RECORD_HEADER_SIZE + 8 * labels.length + ENTRY_SIZE * entryCount;
+        // Keep at least 4 zero bytes after the record, to mark the end of the segment
+        if (position + length + 4 > segmentSize) {
+            openSegment(timestamp);
+            if (position + length + 4 > segmentSize) {
+                // The record cannot fit in an empty segment
+                droppedCount++;
+                return;
+            }
+        }
+
+        int offset = position + 4;
+        buffer.putInt(offset, entryCount);
+        buffer.putLong(offset + 4, timestamp);
+        offset += 12;
+        for (long value : values) {
+            buffer.putLong(offset, value);
+            offset += 8;
+        }
+        for (int i = 0; i < deltas.length; i++) {
+            long[] histogramDeltas = deltas[i];
+            for (int j = 0; j < bucketCount; j++) {
+                if (histogramDeltas[j] != 0) {
+                    buffer.putInt(offset, i << 16 | j);
+                    buffer.putLong(offset + 4, histogramDeltas[j]);
+                    offset += ENTRY_SIZE;
+                }
+            }
+        }
+        // Commit the record
+        buffer.putInt(position, length);
+        position += length;
+        for (int i = 0; i < histogramCounts.length; i++) {
+            System.arraycopy(histogramCounts[i], 0, previousCounts[i], 0, bucketCount);
+        }
+
+        long time = System.nanoTime() - start;
+        appendCount++;
+        appendTime += time;
+        maxAppendTime = Math.max(maxAppendTime, time);
+        writtenBytes += length;
+    }
+
+    /**
+     * Compute the delta of each histogram since the previous record and return the number of non-zero deltas.
+     * A histogram with a negative delta was cleared, so its current counts are used.
+     * The previous counts are only updated once the record is written, so that a dropped record loses no delta.
+     */
+    private int computeDeltas(long[][] histogramCounts) {
+        int entryCount = 0;
+        for (int i = 0; i < histogramCounts.length; i++) {
+            long[] current = histogramCounts[i];
+            long[] previous = previousCounts[i];
+            long[] histogramDeltas = deltas[i];
+            boolean cleared = false;
+            for (int j = 0; j < bucketCount; j++) {
+                histogramDeltas[j] = current[j] - previous[j];
+                cleared |= histogramDeltas[j] < 0;
+            }
+            if (cleared) {
+                System.arraycopy(current, 0, histogramDeltas, 0, bucketCount);
+            }
+            for (int j = 0; j < bucketCount; j++) {
+                if (histogramDeltas[j] != 0) {
+                    entryCount++;
+                }
+            }
+        }
+        return entryCount;
+    }
+
+    /**
+     * Write the records of the current segment to the storage device.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Return the overhead of the journal: append count and times (in μs) and written bytes.
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("directory", directory.toAbsolutePath().toString());
+        report.put("segmentSize", segmentSize);
+        report.put("maxSegments", maxSegments);
+        report.put("segments", segmentCount);
+        report.put("records", appendCount);
+        report.put("droppedRecords", droppedCount);
+        report.put("writtenBytes", writtenBytes);
+        report.put("segmentUsedPercent", Math.round(position * 1000.0 / segmentSize) / 10.0);
+        report.put("meanAppendTime", appendCount > 0 ? appendTime / appendCount / 1000.0 : 0);
+        report.put("maxAppendTime", maxAppendTime / 1000.0);
+        return report;
+    }
+}
@@ -0,0 +1,358 @@
+package com.adeliosys.sample.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log pipeline used by the access log filter and the session event listener, so that the request
+ * threads do not pay for the message formatting and the I/O.
+ * <p>
+ * The producers claim a pre-allocated {@link LogEvent} of a multi-producer ring buffer, fill it and publish it.
+ * A single consumer thread drains the published events in batches, formats them and writes them through a buffered
+ * NIO channel, to a file or to the standard output.
+ * <p>
+ * When the ring buffer is full, the {@link Backpressure} policy either drops the new events, which are counted,
+ * or blocks the producers until the consumer frees a slot.
+ * The events published before the pipeline is started are kept, as long as the ring buffer is not full.
+ * <p>
+ * The consumer stops at the first claimed event that is not published yet, so every claimed event must be either
+ * published or {@link #cancel(LogEvent) cancelled}.
+ */
+public class AsyncLogPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncLogPipeline.class);
+
+    private static final int CAPACITY = 8192;
+
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private static final AsyncLogPipeline INSTANCE = new AsyncLogPipeline();
+
+    /**
+     * The formatter of the cancelled events, that are skipped by the consumer.
+     */
+    private static final LogEventFormatter CANCELLED = (event, builder) -> {
+    };
+
+    public enum Backpressure {
+        /**
+         * Drop and count the events published when the ring buffer is full.
+         */
+        DROP,
+        /**
+         * Block the producers until the consumer frees a slot.
+         */
+        BLOCK
+    }
+
+    private final LogEvent[] events = new LogEvent[CAPACITY];
+
+    /**
+     * The last sequence published in each slot.
+     */
+    private final AtomicLongArray publishedSequences = new AtomicLongArray(CAPACITY);
+
+    /**
+     * The next sequence to claim.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next sequence to consume, only updated by the consumer thread.
+     */
+    private volatile long head;
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final LongAdder blockedCount = new LongAdder();
+
+    private volatile Backpressure backpressure = Backpressure.DROP;
+
+    private volatile WritableByteChannel channel;
+
+    private volatile boolean running;
+
+    private Thread consumer;
+
+    // The following fields are only used by the consumer thread
+
+    private final StringBuilder builder = new StringBuilder(1024);
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    private long formattedSecond = -1;
+
+    private String formattedSecondPrefix;
+
+    private volatile long writtenCount;
+
+    private volatile long batchCount;
+
+    private volatile long writtenBytes;
+
+    private volatile long formatFailureCount;
+
+    private AsyncLogPipeline() {
+        for (int i = 0; i < CAPACITY; i++) {
+            events[i] = new LogEvent();
+            publishedSequences.set(i, -1);
+        }
+    }
+
+    public static AsyncLogPipeline getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start the consumer thread.
+     *
+     * @param file the file to append to, or null or empty to write to the standard output
+     */
+    public synchronized void start(String file, Backpressure backpressure) throws IOException {
+        if (running) {
+            return;
+        }
+        if (file == null || file.isEmpty()) {
+            channel = Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+        } else {
+            Path path = Path.of(file).toAbsolutePath();
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        this.backpressure = backpressure;
+        running = true;
+        consumer = new Thread(this::consume, "async-log-pipeline");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Stop the consumer thread, once the published events are written. With the block policy, the new events are then
+     * dropped and the consumer first writes all the claimed events, so that no blocked producer is left waiting.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        consumer.join();
+    }
+
+    /**
+     * Claim an event, to fill and then {@link #publish(LogEvent)}, or {@link #cancel(LogEvent)} if filling it fails.
+     *
+     * @return the event, or null if it was dropped
+     */
+    public LogEvent claim(LogEventFormatter formatter) {
+        long sequence;
+        if (backpressure == Backpressure.BLOCK) {
+            if (!running) {
+                // The pipeline is stopped, so a full ring buffer would block forever
+                droppedCount.increment();
+                return null;
+            }
+            sequence = tail.getAndIncrement();
+            if (sequence - head >= CAPACITY) {
+                blockedCount.increment();
+                // The consumer does not stop before the claimed sequences are written, so the wait always ends
+                while (sequence - head >= CAPACITY) {
+                    LockSupport.parkNanos(10_000);
+                }
+            }
+        } else {
+            do {
+                sequence = tail.get();
+                if (sequence - head >= CAPACITY) {
+                    droppedCount.increment();
+                    return null;
+                }
+            } while (!tail.compareAndSet(sequence, sequence + 1));
+        }
+
+        LogEvent event = events[(int) sequence & (CAPACITY - 1)];
+        event.init(sequence, formatter);
+        return event;
+    }
+
+    public void publish(LogEvent event) {
+        publishedSequences.lazySet((int) event.sequence & (CAPACITY - 1), event.sequence);
+    }
+
+    /**
+     * Publish a claimed event as a skip marker, that frees its slot without being written.
+     */
+    public void cancel(LogEvent event) {
+        event.setFormatter(CANCELLED);
+        publish(event);
+    }
+
+    private void consume() {
+        while (true) {
+            try {
+                int count = consumeBatch();
+                if (count == 0) {
+                    // With the block policy, wait for the claimed events, some producers may be blocked on them
+                    if (!running && (backpressure == Backpressure.DROP || head == tail.get())) {
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to write the log events", e);
+            }
+        }
+
+        try {
+            // Do not close the standard output
+            if (channel instanceof FileChannel) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the log channel", e);
+        }
+    }
+
+    /**
+     * Format and write the available events, up to the maximum batch size.
+     * An event whose formatting fails is skipped and counted, and its slot is freed anyway.
+     * A cancelled event is skipped without being counted.
+     */
+    private int consumeBatch() throws IOException {
+        int count = 0;
+        int written = 0;
+        long sequence = head;
+        while (count < MAX_BATCH_SIZE) {
+            int index = (int) sequence & (CAPACITY - 1);
+            if (publishedSequences.get(index) != sequence) {
+                break;
+            }
+
+            LogEvent event = events[index];
+            boolean formatted = false;
+            try {
+                if (event.getFormatter() == CANCELLED) {
+                    continue;
+                }
+                builder.setLength(0);
+                appendTimestamp(event.getTimestamp());
+                builder.append(" [").append(event.getThreadName()).append("] ");
+                event.getFormatter().format(event, builder);
+                builder.append('\n');
+                formatted = true;
+            } catch (RuntimeException e) {
+                formatFailureCount++;
+                LOGGER.debug("Failed to format a log event", e);
+            } finally {
+                event.clear();
+                // Free the slot before writing, to unblock the producers sooner
+                head = ++sequence;
+                count++;
+            }
+
+            if (formatted) {
+                encode();
+                written++;
+            }
+        }
+
+        if (written > 0) {
+            flush();
+            writtenCount += written;
+            batchCount++;
+        }
+        return count;
+    }
+
+    /**
+     * Append the timestamp in ISO format, reusing the formatted date and time of the current second.
+     */
+    private void appendTimestamp(long timestamp) {
+        long second = timestamp / 1000;
+        if (second != formattedSecond) {
+            // For example "2023-01-10T08:45:30."
+            formattedSecond = second;
+            formattedSecondPrefix = DateTimeFormatter.ISO_LOCAL_DATE_TIME
+                    .format(LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC)) + '.';
+        }
+        int millis = (int) (timestamp % 1000);
+        builder.append(formattedSecondPrefix)
+                .append((char) ('0' + millis / 100))
+                .append((char) ('0' + millis / 10 % 10))
+                .append((char) ('0' + millis % 10))
+                .append('Z');
+    }
+
+    private void encode() throws IOException {
+        CharBuffer chars = CharBuffer.wrap(builder);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (!result.isOverflow()) {
+                break;
+            }
+            flush();
+        }
+        encoder.reset();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writtenBytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public Map<String, Object> getReport() {
+        long currentTail = tail.get();
+        long currentHead = head;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("running", running);
+        report.put("capacity", CAPACITY);
+        report.put("backpressure", backpressure);
+        report.put("published", currentTail);
+        report.put("pending", Math.max(0, currentTail - currentHead));
+        report.put("dropped", droppedCount.sum());
+        report.put("blocked", blockedCount.sum());
+        report.put("written", writtenCount);
+        report.put("formatFailures", formatFailureCount);
+        report.put("batches", batchCount);
+        report.put("writtenBytes", writtenBytes);
+        return report;
+    }
+}
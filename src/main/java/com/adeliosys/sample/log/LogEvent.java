@@ -0,0 +1,75 @@
+package com.adeliosys.sample.log;
+
+/**
+ * A pre-allocated slot of the {@link AsyncLogPipeline} ring buffer.
+ * <p>
+ * A producer fills the slot with references to existing strings and with primitive values only, so that publishing
+ * an event neither allocates nor formats anything. The meaning of the texts and values is defined by the formatter.
+ */
+public class LogEvent {
+
+    public static final int MAX_TEXTS = 4;
+
+    public static final int MAX_VALUES = 24;
+
+    long sequence;
+
+    private LogEventFormatter formatter;
+
+    private long timestamp;
+
+    private String threadName;
+
+    private final String[] texts = new String[MAX_TEXTS];
+
+    private final long[] values = new long[MAX_VALUES];
+
+    void init(long sequence, LogEventFormatter formatter) {
+        this.sequence = sequence;
+        this.formatter = formatter;
+        this.timestamp = System.currentTimeMillis();
+        this.threadName = Thread.currentThread().getName();
+    }
+
+    void clear() {
+        formatter = null;
+        threadName = null;
+        for (int i = 0; i < MAX_TEXTS; i++) {
+            texts[i] = null;
+        }
+    }
+
+    LogEventFormatter getFormatter() {
+        return formatter;
+    }
+
+    void setFormatter(LogEventFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public LogEvent setText(int index, String text) {
+        texts[index] = text;
+        return this;
+    }
+
+    public String getText(int index) {
+        return texts[index];
+    }
+
+    public LogEvent setValue(int index, long value) {
+        values[index] = value;
+        return this;
+    }
+
+    public long getValue(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,10 @@
+package com.adeliosys.sample.log;
+
+/**
+ * Format a {@link LogEvent} as a log line, called by the consumer thread of the {@link AsyncLogPipeline}.
+ */
+@FunctionalInterface
+public interface LogEventFormatter {
+
+    void format(LogEvent event, StringBuilder builder);
+}
@@ -0,0 +1,115 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small log-linear histogram, meant to be allocated per query, entity, collection role or route.
+ * <p>
+ * By default, each power of two is split into 8 linear sub-buckets (the relative error of a reported value is below 13%)
+ * and values above 2^40 are counted in the last bucket, so a stripe uses about 2.4 KB.
+ * Like {@link LongAdder}, the histogram starts with a single stripe and adds stripes only when concurrent writers
+ * collide, so that rarely used histograms stay small and heavily used ones do not suffer from contention.
+ * Recording a value is lock-free and does not allocate, except when adding stripes.
+ */
+public class CompactHistogram {
+
+    private static final int DEFAULT_SUB_BUCKET_BITS = 3;
+
+    private static final int DEFAULT_MAX_VALUE_BITS = 40;
+
+    private static final int MAX_STRIPES = 8;
+
+    private final int subBucketBits;
+
+    private final int bucketCount;
+
+    private volatile AtomicLongArray[] stripes;
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public CompactHistogram() {
+        this(DEFAULT_SUB_BUCKET_BITS, DEFAULT_MAX_VALUE_BITS);
+    }
+
+    /**
+     * @param subBucketBits the base 2 logarithm of the number of sub-buckets per power of two
+     * @param maxValueBits  the number of bits of the largest value that is not counted in the last bucket
+     */
+    public CompactHistogram(int subBucketBits, int maxValueBits) {
+        this.subBucketBits = subBucketBits;
+        bucketCount = (maxValueBits - subBucketBits + 1) << subBucketBits;
+        stripes = new AtomicLongArray[]{new AtomicLongArray(bucketCount)};
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = Math.min(Histogram.bucketIndex(value, subBucketBits), bucketCount - 1);
+
+        AtomicLongArray[] current = stripes;
+        AtomicLongArray stripe = current[stripeIndex(current.length)];
+        long count = stripe.get(index);
+        if (!stripe.compareAndSet(index, count, count + 1)) {
+            // Another thread updated the same bucket concurrently
+            stripe.incrementAndGet(index);
+            if (current.length < MAX_STRIPES) {
+                addStripes(current);
+            }
+        }
+
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    private static int stripeIndex(int stripeCount) {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & (stripeCount - 1);
+    }
+
+    private synchronized void addStripes(AtomicLongArray[] current) {
+        if (stripes != current) {
+            // Already done by another thread
+            return;
+        }
+        AtomicLongArray[] expanded = new AtomicLongArray[current.length * 2];
+        System.arraycopy(current, 0, expanded, 0, current.length);
+        for (int i = current.length; i < expanded.length; i++) {
+            expanded[i] = new AtomicLongArray(bucketCount);
+        }
+        stripes = expanded;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMin() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /**
+     * Return a copy of the histogram, merged across stripes.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[bucketCount];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < bucketCount; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new HistogramSnapshot(counts, sum.sum(), max.get(), subBucketBits);
+    }
+}
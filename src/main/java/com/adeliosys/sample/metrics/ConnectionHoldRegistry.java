@@ -0,0 +1,250 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide statistics of the time the Hibernate sessions hold a JDBC connection, i.e. between the end of the
+ * connection acquisition and the start of its release, per route.
+ * <p>
+ * The connections held longer than a threshold are the usual cause of pool starvation. A watchdog thread
+ * periodically captures the stack trace of the threads holding a connection beyond the threshold, which shows
+ * what they are doing while holding it (rather than where the connection was acquired). The longest holds are kept,
+ * and the connections still held beyond the threshold are reported as possible leaks.
+ * Times are in nanoseconds.
+ */
+public class ConnectionHoldRegistry {
+
+    private static final ConnectionHoldRegistry INSTANCE = new ConnectionHoldRegistry();
+
+    private static final int MAX_ROUTES = 500;
+
+    private static final String NO_ROUTE = "NONE";
+
+    private static final String OVERFLOW_ROUTE = "OTHER";
+
+    private static final int LONGEST_CAPACITY = 20;
+
+    private static final int MAX_STACK_DEPTH = 40;
+
+    private final Map<String, CompactHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final Set<Holder> activeHolders = ConcurrentHashMap.newKeySet();
+
+    private final PriorityQueue<Holder> longest = new PriorityQueue<>(Comparator.comparingLong(Holder::getHoldTime));
+
+    /**
+     * The cumulative number of holds and hold time of all the routes, never cleared, sampled by the pool sampler.
+     */
+    private final LongAdder holdCount = new LongAdder();
+
+    private final LongAdder holdTime = new LongAdder();
+
+    private volatile long threshold;
+
+    private ScheduledExecutorService watchdog;
+
+    private ConnectionHoldRegistry() {
+    }
+
+    public static ConnectionHoldRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start the watchdog, that checks the active holders at half the threshold.
+     *
+     * @param threshold in nanoseconds
+     */
+    public synchronized void start(long threshold) {
+        this.threshold = threshold;
+        if (watchdog == null && threshold > 0) {
+            watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "connection-hold-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), threshold / 2);
+            watchdog.scheduleAtFixedRate(this::checkHolders, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * Called by the current thread when it acquired a connection.
+     */
+    public Holder acquired(String route) {
+        Holder holder = new Holder(Thread.currentThread(), route, System.nanoTime());
+        if (threshold > 0) {
+            activeHolders.add(holder);
+        }
+        return holder;
+    }
+
+    /**
+     * Called by the holder thread when it starts to release the connection.
+     */
+    public void released(Holder holder) {
+        long holdTime = System.nanoTime() - holder.start;
+        holder.holdTime = holdTime;
+        activeHolders.remove(holder);
+        this.holdCount.increment();
+        this.holdTime.add(holdTime);
+
+        String route = holder.route != null ? holder.route : NO_ROUTE;
+        CompactHistogram histogram = histograms.get(route);
+        if (histogram == null) {
+            if (histograms.size() >= MAX_ROUTES) {
+                route = OVERFLOW_ROUTE;
+            }
+            histogram = histograms.computeIfAbsent(route, k -> new CompactHistogram());
+        }
+        histogram.record(holdTime);
+
+        long currentThreshold = threshold;
+        if (currentThreshold > 0 && holdTime > currentThreshold) {
+            if (holder.stackTrace == null) {
+                // Released before the watchdog saw it
+                holder.stackTrace = Thread.currentThread().getStackTrace();
+            }
+            addLongest(holder);
+        }
+    }
+
+    private void checkHolders() {
+        long now = System.nanoTime();
+        for (Holder holder : activeHolders) {
+            if (holder.stackTrace == null && now - holder.start > threshold) {
+                holder.stackTrace = holder.thread.getStackTrace();
+            }
+        }
+    }
+
+    private synchronized void addLongest(Holder holder) {
+        if (longest.size() >= LONGEST_CAPACITY) {
+            if (holder.holdTime <= longest.peek().holdTime) {
+                return;
+            }
+            longest.poll();
+        }
+        longest.add(holder);
+    }
+
+    public long getHoldCount() {
+        return holdCount.sum();
+    }
+
+    public long getHoldTime() {
+        return holdTime.sum();
+    }
+
+    public synchronized void clear() {
+        histograms.clear();
+        longest.clear();
+    }
+
+    /**
+     * Return the hold time percentiles per route, the longest holds and the connections held beyond the threshold.
+     * Times are in microseconds.
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> routeReports = new TreeMap<>();
+        histograms.forEach((route, histogram) -> {
+            HistogramSnapshot snapshot = histogram.snapshot();
+            Map<String, Object> routeReport = new LinkedHashMap<>();
+            routeReport.put("holds", snapshot.getCount());
+            routeReport.put("mean", snapshot.getMean() / 1000);
+            routeReport.put("p50", snapshot.getValueAtPercentile(50) / 1000);
+            routeReport.put("p99", snapshot.getValueAtPercentile(99) / 1000);
+            routeReport.put("max", snapshot.getMax() / 1000);
+            routeReports.put(route, routeReport);
+        });
+
+        List<Holder> longestHolders;
+        synchronized (this) {
+            longestHolders = new ArrayList<>(longest);
+        }
+        longestHolders.sort(Comparator.comparingLong(Holder::getHoldTime).reversed());
+        List<Map<String, Object>> longestReports = new ArrayList<>();
+        for (Holder holder : longestHolders) {
+            longestReports.add(holder.getReport(holder.holdTime));
+        }
+
+        long now = System.nanoTime();
+        List<Map<String, Object>> activeReports = new ArrayList<>();
+        for (Holder holder : activeHolders) {
+            if (now - holder.start > threshold) {
+                activeReports.add(holder.getReport(now - holder.start));
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("threshold", threshold / 1000);
+        report.put("routes", routeReports);
+        report.put("longest", longestReports);
+        report.put("heldBeyondThreshold", activeReports);
+        return report;
+    }
+
+    /**
+     * A connection held by a thread, from its acquisition to its release.
+     */
+    public static class Holder {
+
+        private final Thread thread;
+
+        private final String threadName;
+
+        private final String route;
+
+        private final long start;
+
+        private final long timestamp = System.currentTimeMillis();
+
+        private volatile long holdTime;
+
+        private volatile StackTraceElement[] stackTrace;
+
+        Holder(Thread thread, String route, long start) {
+            this.thread = thread;
+            this.threadName = thread.getName();
+            this.route = route;
+            this.start = start;
+        }
+
+        long getHoldTime() {
+            return holdTime;
+        }
+
+        Map<String, Object> getReport(long time) {
+            StackTraceElement[] elements = stackTrace;
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("holdTime", time / 1000);
+            report.put("route", route);
+            report.put("thread", threadName);
+            report.put("acquiredAt", timestamp);
+            report.put("stackTrace", elements != null
+                    ? Arrays.stream(elements).limit(MAX_STACK_DEPTH).map(StackTraceElement::toString).toList()
+                    : null);
+            return report;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide row counts of the entities, maintained incrementally from the committed inserts and deletes,
+ * so that reading a count does not query the database.
+ * <p>
+ * The counts are seeded and periodically reconciled with the database, to fix the drift caused by the changes
+ * that bypass the Hibernate events (such as native statements) or that commit while a reconciliation is running.
+ */
+public class EntityCountRegistry {
+
+    private static final EntityCountRegistry INSTANCE = new EntityCountRegistry();
+
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    private final LongAdder reconciliationCount = new LongAdder();
+
+    private final LongAdder correctionCount = new LongAdder();
+
+    private final LongAdder skippedCount = new LongAdder();
+
+    private volatile long lastReconciliationTime;
+
+    private EntityCountRegistry() {
+    }
+
+    public static EntityCountRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private AtomicLong getOrCreateCount(String entityName) {
+        AtomicLong count = counts.get(entityName);
+        return count != null ? count : counts.computeIfAbsent(entityName, k -> new AtomicLong());
+    }
+
+    /**
+     * Add a committed delta to the count of an entity.
+     */
+    public void add(String entityName, long delta) {
+        getOrCreateCount(entityName).addAndGet(delta);
+    }
+
+    public long getCount(String entityName) {
+        AtomicLong count = counts.get(entityName);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Return the current count of an entity, to be passed to {@link #reconcile} after counting the rows.
+     */
+    public long getReconciliationStamp(String entityName) {
+        return getOrCreateCount(entityName).get();
+    }
+
+    /**
+     * Replace the count of an entity by the number of rows counted in the database, unless a delta was added
+     * since the stamp was read, in which case the reconciliation is retried next time.
+     */
+    public void reconcile(String entityName, long stamp, long rowCount) {
+        reconciliationCount.increment();
+        if (stamp == rowCount) {
+            return;
+        }
+        if (getOrCreateCount(entityName).compareAndSet(stamp, rowCount)) {
+            correctionCount.increment();
+        } else {
+            skippedCount.increment();
+        }
+    }
+
+    public void reconciled() {
+        lastReconciliationTime = System.currentTimeMillis();
+    }
+
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Long> entityCounts = new TreeMap<>();
+        counts.forEach((name, count) -> entityCounts.put(name, count.get()));
+        report.put("counts", entityCounts);
+        report.put("reconciliations", reconciliationCount.sum());
+        report.put("corrections", correctionCount.sum());
+        report.put("skippedReconciliations", skippedCount.sum());
+        report.put("lastReconciliationTime", lastReconciliationTime);
+        return report;
+    }
+}
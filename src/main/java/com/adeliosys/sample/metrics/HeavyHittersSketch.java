@@ -0,0 +1,202 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed memory statistics of the most executed statement fingerprints, using the Space-Saving algorithm.
+ * <p>
+ * At most "capacity" fingerprints are tracked. When a new fingerprint is seen and the sketch is full,
+ * it replaces the least executed fingerprint, whose statistics are moved to an "other" bucket.
+ * A fingerprint executed more than 1/capacity of the time is guaranteed to be tracked.
+ * Statements are fingerprinted with {@link SqlFingerprint}, the normalized text is computed only when reporting.
+ */
+public class HeavyHittersSketch {
+
+    private final int capacity;
+
+    private final long[] hashes;
+
+    /**
+     * The estimated executions count, used for the ranking. It may overestimate the actual count by the error.
+     */
+    private final long[] counts;
+
+    private final long[] errors;
+
+    private final long[] totalTimes;
+
+    private final long[] maxTimes;
+
+    private final long[] rows;
+
+    private final String[] statements;
+
+    /**
+     * Open addressing hash table of entry index + 1, 0 meaning an empty slot.
+     */
+    private final int[] table;
+
+    private int size;
+
+    private long otherExecutions;
+
+    private long otherTotalTime;
+
+    private long otherMaxTime;
+
+    private long otherRows;
+
+    public HeavyHittersSketch(int capacity) {
+        this.capacity = capacity;
+        hashes = new long[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        totalTimes = new long[capacity];
+        maxTimes = new long[capacity];
+        rows = new long[capacity];
+        statements = new String[capacity];
+        table = new int[Integer.highestOneBit(capacity * 4 - 1)];
+    }
+
+    /**
+     * Record the execution of a statement.
+     */
+    public void record(String statement, long time, long rowCount) {
+        // Fingerprint outside the lock
+        long hash = SqlFingerprint.hash(statement);
+        record(hash, statement, time, rowCount);
+    }
+
+    /**
+     * Record the execution of a statement, whose fingerprint hash was computed by {@link SqlFingerprint#hash(String)}.
+     */
+    public synchronized void record(long hash, String statement, long time, long rowCount) {
+        int index = find(hash);
+        if (index < 0) {
+            if (size < capacity) {
+                index = size++;
+                counts[index] = 0;
+                errors[index] = 0;
+            } else {
+                index = evictMin();
+                errors[index] = counts[index];
+            }
+            hashes[index] = hash;
+            statements[index] = statement;
+            totalTimes[index] = 0;
+            maxTimes[index] = 0;
+            rows[index] = 0;
+            insert(hash, index);
+        }
+
+        counts[index]++;
+        totalTimes[index] += time;
+        maxTimes[index] = Math.max(maxTimes[index], time);
+        rows[index] += rowCount;
+    }
+
+    /**
+     * Move the statistics of the least executed entry to the other bucket, and return the index of the entry.
+     */
+    private int evictMin() {
+        int min = 0;
+        for (int i = 1; i < size; i++) {
+            if (counts[i] < counts[min]) {
+                min = i;
+            }
+        }
+
+        otherExecutions += counts[min] - errors[min];
+        otherTotalTime += totalTimes[min];
+        otherMaxTime = Math.max(otherMaxTime, maxTimes[min]);
+        otherRows += rows[min];
+        remove(hashes[min]);
+        return min;
+    }
+
+    public synchronized void clear() {
+        size = 0;
+        Arrays.fill(table, 0);
+        Arrays.fill(statements, null);
+        otherExecutions = 0;
+        otherTotalTime = 0;
+        otherMaxTime = 0;
+        otherRows = 0;
+    }
+
+    /**
+     * Return a copy of the tracked entries, in no particular order.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(statements[i], counts[i] - errors[i], errors[i], totalTimes[i], maxTimes[i], rows[i]));
+        }
+        return entries;
+    }
+
+    /**
+     * Return the aggregated statistics of the evicted entries.
+     */
+    public synchronized Entry getOther() {
+        return new Entry(null, otherExecutions, 0, otherTotalTime, otherMaxTime, otherRows);
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (table.length - 1);
+    }
+
+    private int find(long hash) {
+        for (int i = slot(hash); table[i] != 0; i = (i + 1) & (table.length - 1)) {
+            if (hashes[table[i] - 1] == hash) {
+                return table[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long hash, int index) {
+        int i = slot(hash);
+        while (table[i] != 0) {
+            i = (i + 1) & (table.length - 1);
+        }
+        table[i] = index + 1;
+    }
+
+    private void remove(long hash) {
+        int mask = table.length - 1;
+        int i = slot(hash);
+        while (hashes[table[i] - 1] != hash) {
+            i = (i + 1) & mask;
+        }
+        table[i] = 0;
+
+        // Shift back the following entries of the cluster, to keep them reachable
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = slot(hashes[table[j] - 1]);
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * The statistics of a fingerprint. The executions are the ones recorded since the fingerprint is tracked,
+     * and the error is the maximum number of executions missed before that.
+     */
+    public record Entry(String statement, long executions, long error, long totalTime, long maxTime, long rows) {
+
+        public String getFingerprint() {
+            return statement != null ? SqlFingerprint.normalize(statement) : "(other)";
+        }
+
+        public long getAvgTime() {
+            return executions > 0 ? totalTime / executions : 0;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed memory log-linear histogram of positive long values (usually nanoseconds).
+ * <p>
+ * Each power of two is split into 16 linear sub-buckets, so the relative error of a reported value is below 7%.
+ * The buckets are striped by thread to limit the contention between concurrent writers,
+ * and recording a value does not allocate.
+ */
+public class Histogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    public static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final int stripeMask;
+
+    private final AtomicLongArray buckets;
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two
+     */
+    public Histogram(int stripes) {
+        int count = stripesFor(stripes);
+        stripeMask = count - 1;
+        buckets = new AtomicLongArray(count * BUCKET_COUNT);
+    }
+
+    private static int stripesFor(int requested) {
+        // Round up to a power of two, at most 16
+        return Integer.highestOneBit(Math.max(1, Math.min(requested, 16)) * 2 - 1);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        buckets.incrementAndGet(stripe * BUCKET_COUNT + bucketIndex(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Return a consistent copy of the histogram, merged across stripes.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < buckets.length(); i++) {
+            counts[i % BUCKET_COUNT] += buckets.get(i);
+        }
+        return new HistogramSnapshot(counts, sum.sum(), max.get());
+    }
+
+    /**
+     * Copy the counts merged across stripes into an array of {@link #BUCKET_COUNT} elements, without allocating.
+     */
+    public void copyCounts(long[] counts) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = 0;
+            for (int j = i; j < buckets.length(); j += BUCKET_COUNT) {
+                count += buckets.get(j);
+            }
+            counts[i] = count;
+        }
+    }
+
+    /**
+     * Reset the histogram. Values recorded concurrently may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    static int bucketIndex(long value) {
+        return bucketIndex(value, SUB_BUCKET_BITS);
+    }
+
+    static long bucketLowerBound(int index) {
+        return bucketLowerBound(index, SUB_BUCKET_BITS);
+    }
+
+    static long bucketWidth(int index) {
+        return bucketWidth(index, SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Return the index of the bucket of a value, for a given number of sub-buckets per power of two.
+     */
+    static int bucketIndex(long value, int subBucketBits) {
+        int subBucketCount = 1 << subBucketBits;
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        int subBucket = (int) (value >>> shift) - subBucketCount;
+        return (shift + 1) * subBucketCount + subBucket;
+    }
+
+    static long bucketLowerBound(int index, int subBucketBits) {
+        int subBucketCount = 1 << subBucketBits;
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = index / subBucketCount - 1;
+        return (long) (subBucketCount + index % subBucketCount) << shift;
+    }
+
+    static long bucketWidth(int index, int subBucketBits) {
+        int subBucketCount = 1 << subBucketBits;
+        return index < subBucketCount ? 1 : 1L << (index / subBucketCount - 1);
+    }
+}
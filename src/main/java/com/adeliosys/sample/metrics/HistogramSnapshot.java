@@ -0,0 +1,146 @@
+package com.adeliosys.sample.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An immutable copy of a {@link Histogram} or {@link CompactHistogram}, used to compute percentiles.
+ */
+public class HistogramSnapshot {
+
+    private final long[] counts;
+
+    private final int subBucketBits;
+
+    private final long count;
+
+    private final long sum;
+
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long sum, long max) {
+        this(counts, sum, max, Histogram.SUB_BUCKET_BITS);
+    }
+
+    HistogramSnapshot(long[] counts, long sum, long max, int subBucketBits) {
+        this.counts = counts;
+        this.subBucketBits = subBucketBits;
+        this.sum = sum;
+        this.max = max;
+
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        this.count = total;
+    }
+
+    /**
+     * Create a snapshot from the counts of a {@link Histogram}, such as the ones read from a journal.
+     * The max is unknown, so it is estimated as the upper bound of the highest non-empty bucket.
+     */
+    public static HistogramSnapshot fromCounts(long[] counts, long sum) {
+        long max = 0;
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                max = Histogram.bucketLowerBound(i) + Histogram.bucketWidth(i) - 1;
+                break;
+            }
+        }
+        return new HistogramSnapshot(counts, sum, max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * Return the value at a given percentile, such as 99.9, or 0 if the histogram is empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count <= 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long cumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulated += counts[i];
+            if (cumulated >= rank) {
+                // Use the middle of the bucket, but never report more than the actual max
+                long value = Histogram.bucketLowerBound(i, subBucketBits) + (Histogram.bucketWidth(i, subBucketBits) - 1) / 2;
+                return Math.min(value, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Write the layout, sum and max, then the non-empty buckets as (index, count) pairs.
+     */
+    public void writeTo(DataOutput output) throws IOException {
+        int nonEmptyCount = 0;
+        for (long c : counts) {
+            if (c != 0) {
+                nonEmptyCount++;
+            }
+        }
+        output.writeByte(subBucketBits);
+        output.writeShort(counts.length);
+        output.writeLong(sum);
+        output.writeLong(max);
+        output.writeShort(nonEmptyCount);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                output.writeShort(i);
+                output.writeLong(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Read a snapshot written by {@link #writeTo(DataOutput)}.
+     */
+    public static HistogramSnapshot readFrom(DataInput input) throws IOException {
+        int subBucketBits = input.readUnsignedByte();
+        long[] counts = new long[input.readUnsignedShort()];
+        long sum = input.readLong();
+        long max = input.readLong();
+        int nonEmptyCount = input.readUnsignedShort();
+        for (int i = 0; i < nonEmptyCount; i++) {
+            int index = input.readUnsignedShort();
+            if (index >= counts.length) {
+                throw new IOException("Invalid bucket index " + index + " for a histogram of " + counts.length + " buckets");
+            }
+            counts[index] = input.readLong();
+        }
+        return new HistogramSnapshot(counts, sum, max, subBucketBits);
+    }
+
+    /**
+     * Return a new snapshot combining this one and another one.
+     */
+    public HistogramSnapshot merge(HistogramSnapshot other) {
+        if (subBucketBits != other.subBucketBits || counts.length != other.counts.length) {
+            throw new IllegalArgumentException("Cannot merge snapshots of histograms with different layouts");
+        }
+        long[] merged = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            merged[i] = counts[i] + other.counts[i];
+        }
+        return new HistogramSnapshot(merged, sum + other.sum, Math.max(max, other.max), subBucketBits);
+    }
+}
@@ -0,0 +1,145 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide aggregation of the sessions that executed the same statement fingerprint too many times,
+ * which is usually the sign of N+1 selects.
+ */
+public class NPlusOneRegistry {
+
+    private static final NPlusOneRegistry INSTANCE = new NPlusOneRegistry();
+
+    private static final int MAX_OFFENDERS = 200;
+
+    private final Map<Long, Offender> offenders = new ConcurrentHashMap<>();
+
+    private final LongAdder flaggedSessionCount = new LongAdder();
+
+    private volatile int threshold = 5;
+
+    private NPlusOneRegistry() {
+    }
+
+    public static NPlusOneRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Set the number of executions of a same fingerprint in a session above which the session is flagged.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Check the statements of an ending session and return the number of offending fingerprints.
+     */
+    public int check(StatementTracker tracker, String route) {
+        int offenderCount = 0;
+        for (int i = 0; i < tracker.getSize(); i++) {
+            if (tracker.getCount(i) > threshold) {
+                offenderCount++;
+                recordOffender(tracker, i, route);
+            }
+        }
+        if (offenderCount > 0) {
+            flaggedSessionCount.increment();
+        }
+        return offenderCount;
+    }
+
+    private void recordOffender(StatementTracker tracker, int index, String route) {
+        Offender offender = offenders.get(tracker.getHash(index));
+        if (offender == null) {
+            if (offenders.size() >= MAX_OFFENDERS) {
+                // Already tracking enough offenders
+                return;
+            }
+            offender = offenders.computeIfAbsent(tracker.getHash(index),
+                    k -> new Offender(SqlFingerprint.normalize(tracker.getStatement(index))));
+        }
+        offender.record(tracker.getCount(index), tracker.getRole(index), route);
+    }
+
+    public void clear() {
+        offenders.clear();
+        flaggedSessionCount.reset();
+    }
+
+    /**
+     * Return the top offenders, sorted by decreasing number of flagged sessions.
+     */
+    public Map<String, Object> getReport(int top) {
+        if (top < 1) {
+            throw new IllegalArgumentException("The top must be positive");
+        }
+
+        List<Offender> sortedOffenders = new ArrayList<>(offenders.values());
+        sortedOffenders.sort(Comparator.comparingLong((Offender o) -> o.sessionCount.sum()).reversed());
+
+        List<Map<String, Object>> offenderReports = new ArrayList<>();
+        for (Offender offender : sortedOffenders.subList(0, Math.min(top, sortedOffenders.size()))) {
+            offenderReports.add(offender.getReport());
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("threshold", threshold);
+        report.put("flaggedSessions", flaggedSessionCount.sum());
+        report.put("offenders", offenderReports);
+        return report;
+    }
+
+    private static class Offender {
+
+        private final String fingerprint;
+
+        private final LongAdder sessionCount = new LongAdder();
+
+        private final LongAdder executionCount = new LongAdder();
+
+        private final LongAccumulator maxExecutionCount = new LongAccumulator(Math::max, 0);
+
+        private volatile String role;
+
+        private volatile String route;
+
+        Offender(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        void record(int count, String role, String route) {
+            sessionCount.increment();
+            executionCount.add(count);
+            maxExecutionCount.accumulate(count);
+            if (role != null) {
+                this.role = role;
+            }
+            if (route != null) {
+                this.route = route;
+            }
+        }
+
+        Map<String, Object> getReport() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("fingerprint", fingerprint);
+            report.put("role", role);
+            report.put("lastRoute", route);
+            report.put("sessions", sessionCount.sum());
+            report.put("executions", executionCount.sum());
+            report.put("maxExecutionsPerSession", maxExecutionCount.get());
+            return report;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.adeliosys.sample.metrics;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * The persistence cost of the HTTP request being served by the current thread.
+ * <p>
+ * The access log filter starts and ends the request scope, while the session event listeners add
+ * the metrics of each session they observe. The instance is reused by each thread to avoid allocations.
+ */
+public class RequestMetrics {
+
+    private static final ThreadLocal<RequestMetrics> CURRENT = ThreadLocal.withInitial(RequestMetrics::new);
+
+    private HttpServletRequest request;
+
+    private int sessionCount;
+
+    private long statementCount;
+
+    private long batchCount;
+
+    private long connectionWaitTime;
+
+    private long prepareTime;
+
+    private long executionTime;
+
+    private long flushTime;
+
+    private long flushEntityCount;
+
+    /**
+     * Start a new request scope for the current thread.
+     */
+    public static RequestMetrics start(HttpServletRequest request) {
+        RequestMetrics metrics = CURRENT.get();
+        metrics.request = request;
+        metrics.sessionCount = 0;
+        metrics.statementCount = 0;
+        metrics.batchCount = 0;
+        metrics.connectionWaitTime = 0;
+        metrics.prepareTime = 0;
+        metrics.executionTime = 0;
+        metrics.flushTime = 0;
+        metrics.flushEntityCount = 0;
+        return metrics;
+    }
+
+    /**
+     * Return the metrics of the current request, or null if the current thread is not serving a request.
+     */
+    public static RequestMetrics current() {
+        RequestMetrics metrics = CURRENT.get();
+        return metrics.request != null ? metrics : null;
+    }
+
+    /**
+     * End the request scope of the current thread.
+     */
+    public void end() {
+        request = null;
+    }
+
+    /**
+     * Return the route of the request, based on the matched request mapping template rather than the raw URL,
+     * to keep the number of routes bounded. The template is known only once the request has been dispatched.
+     */
+    public String getRoute() {
+        if (request == null) {
+            return null;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + ' ' + (pattern != null ? pattern : "UNMATCHED");
+    }
+
+    /**
+     * Add the metrics of a session, times are in nanoseconds. The execution time includes the JDBC batches.
+     */
+    public void addSession(long statementCount, long batchCount, long connectionWaitTime, long prepareTime,
+                           long executionTime, long flushTime, long flushEntityCount) {
+        this.sessionCount++;
+        this.statementCount += statementCount;
+        this.batchCount += batchCount;
+        this.connectionWaitTime += connectionWaitTime;
+        this.prepareTime += prepareTime;
+        this.executionTime += executionTime;
+        this.flushTime += flushTime;
+        this.flushEntityCount += flushEntityCount;
+    }
+
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getConnectionWaitTime() {
+        return connectionWaitTime;
+    }
+
+    public long getPrepareTime() {
+        return prepareTime;
+    }
+
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
+    public long getFlushTime() {
+        return flushTime;
+    }
+
+    public long getFlushEntityCount() {
+        return flushEntityCount;
+    }
+}
@@ -0,0 +1,195 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process wide latency histograms of the HTTP requests, per route and per status class (2xx, 4xx, etc.).
+ * <p>
+ * The histograms are lock-free, have a fixed memory footprint and can be merged, for example to report the latency
+ * of a route for all the status classes. They use 16 sub-buckets per power of two, so the relative error of a reported
+ * value is below 7%. As in {@link RouteMetricsRegistry}, the number of routes is bounded.
+ * <p>
+ * With a reset interval, the histograms are rotated at the end of each interval, so that the report describes
+ * the last complete interval rather than the whole uptime. Values recorded during a rotation may be lost.
+ */
+public class RouteLatencyRegistry {
+
+    private static final RouteLatencyRegistry INSTANCE = new RouteLatencyRegistry();
+
+    private static final int MAX_ROUTES = 500;
+
+    private static final String OVERFLOW_ROUTE = "OTHER";
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Durations above 2^40 ns (about 18 minutes) are counted in the last bucket.
+     */
+    private static final int MAX_VALUE_BITS = 40;
+
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private volatile Window current = new Window(System.nanoTime());
+
+    private volatile Window previous;
+
+    private volatile long resetInterval;
+
+    private RouteLatencyRegistry() {
+    }
+
+    public static RouteLatencyRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the interval in nanoseconds between two rotations of the histograms, 0 to never rotate them.
+     */
+    public void setResetInterval(long resetInterval) {
+        this.resetInterval = resetInterval;
+    }
+
+    /**
+     * Record a served request, the duration is in nanoseconds.
+     */
+    public void record(String route, int status, long duration) {
+        Window window = current;
+        long interval = resetInterval;
+        if (interval > 0) {
+            long now = System.nanoTime();
+            if (now - window.start >= interval) {
+                window = rotate(window, now);
+            }
+        }
+        window.getRouteLatency(route).record(status, duration);
+    }
+
+    private synchronized Window rotate(Window expected, long now) {
+        if (current == expected) {
+            expected.end = now;
+            previous = expected;
+            current = new Window(now);
+        }
+        return current;
+    }
+
+    /**
+     * Start a new interval now.
+     */
+    public void reset() {
+        rotate(current, System.nanoTime());
+    }
+
+    /**
+     * Return the latency percentiles, max and throughput of each route, sorted by route. Times are in microseconds.
+     *
+     * @param currentWindow true to report the current interval, false to report the last complete interval
+     *                      if there is one (the default when a reset interval is configured)
+     */
+    public Map<String, Object> getReport(boolean currentWindow) {
+        long now = System.nanoTime();
+        long interval = resetInterval;
+        Window window = current;
+        if (interval > 0 && now - window.start >= interval) {
+            // No request since the end of the interval
+            window = rotate(window, now);
+        }
+        if (!currentWindow && interval > 0 && previous != null) {
+            window = previous;
+        }
+        long end = window.end > 0 ? window.end : now;
+        double elapsedSeconds = Math.max(1, end - window.start) / 1e9;
+
+        Map<String, Object> routeReports = new TreeMap<>();
+        window.routes.forEach((route, routeLatency) -> routeReports.put(route, routeLatency.getReport(elapsedSeconds)));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("resetInterval", interval / 1_000_000_000);
+        report.put("complete", window.end > 0);
+        report.put("elapsedSeconds", Math.round(elapsedSeconds * 100) / 100.0);
+        report.put("routes", routeReports);
+        return report;
+    }
+
+    private static Map<String, Object> getHistogramReport(HistogramSnapshot snapshot, double elapsedSeconds) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("requests", snapshot.getCount());
+        report.put("perSecond", Math.round(snapshot.getCount() / elapsedSeconds * 100) / 100.0);
+        report.put("mean", snapshot.getMean() / 1000);
+        report.put("p50", snapshot.getValueAtPercentile(50) / 1000);
+        report.put("p90", snapshot.getValueAtPercentile(90) / 1000);
+        report.put("p99", snapshot.getValueAtPercentile(99) / 1000);
+        report.put("p999", snapshot.getValueAtPercentile(99.9) / 1000);
+        report.put("max", snapshot.getMax() / 1000);
+        return report;
+    }
+
+    /**
+     * The histograms of an interval.
+     */
+    private static class Window {
+
+        private final long start;
+
+        private volatile long end;
+
+        private final Map<String, RouteLatency> routes = new ConcurrentHashMap<>();
+
+        Window(long start) {
+            this.start = start;
+        }
+
+        RouteLatency getRouteLatency(String route) {
+            RouteLatency routeLatency = routes.get(route);
+            if (routeLatency == null) {
+                if (routes.size() >= MAX_ROUTES) {
+                    route = OVERFLOW_ROUTE;
+                }
+                routeLatency = routes.computeIfAbsent(route, k -> new RouteLatency());
+            }
+            return routeLatency;
+        }
+    }
+
+    private static class RouteLatency {
+
+        /**
+         * The histograms by status class, created on first use.
+         */
+        private final AtomicReferenceArray<CompactHistogram> histograms = new AtomicReferenceArray<>(STATUS_CLASSES.length);
+
+        void record(int status, long duration) {
+            int index = Math.max(0, Math.min(status / 100 - 1, STATUS_CLASSES.length - 1));
+            CompactHistogram histogram = histograms.get(index);
+            if (histogram == null) {
+                histograms.compareAndSet(index, null, new CompactHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS));
+                histogram = histograms.get(index);
+            }
+            histogram.record(duration);
+        }
+
+        Map<String, Object> getReport(double elapsedSeconds) {
+            Map<String, Object> statusReports = new LinkedHashMap<>();
+            HistogramSnapshot all = null;
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                CompactHistogram histogram = histograms.get(i);
+                if (histogram != null) {
+                    HistogramSnapshot snapshot = histogram.snapshot();
+                    statusReports.put(STATUS_CLASSES[i], getHistogramReport(snapshot, elapsedSeconds));
+                    all = all == null ? snapshot : all.merge(snapshot);
+                }
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            if (all != null) {
+                report.put("all", getHistogramReport(all, elapsedSeconds));
+            }
+            report.putAll(statusReports);
+            return report;
+        }
+    }
+}
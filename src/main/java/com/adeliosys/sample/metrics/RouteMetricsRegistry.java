@@ -0,0 +1,108 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide aggregation of the HTTP requests persistence cost, per route.
+ * <p>
+ * Routes are request mapping templates such as "GET /find-author" rather than raw URLs, so the number of keys
+ * stays bounded. As a safety net, routes beyond a maximum count are aggregated in a single overflow route.
+ */
+public class RouteMetricsRegistry {
+
+    private static final RouteMetricsRegistry INSTANCE = new RouteMetricsRegistry();
+
+    private static final int MAX_ROUTES = 500;
+
+    private static final String OVERFLOW_ROUTE = "OTHER";
+
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+    private RouteMetricsRegistry() {
+    }
+
+    public static RouteMetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a served request, the duration is in nanoseconds.
+     */
+    public void record(String route, long duration, RequestMetrics requestMetrics) {
+        getRouteMetrics(route).record(duration, requestMetrics);
+    }
+
+    private RouteMetrics getRouteMetrics(String route) {
+        RouteMetrics metrics = routes.get(route);
+        if (metrics == null) {
+            if (routes.size() >= MAX_ROUTES) {
+                route = OVERFLOW_ROUTE;
+            }
+            metrics = routes.computeIfAbsent(route, k -> new RouteMetrics());
+        }
+        return metrics;
+    }
+
+    public void clear() {
+        routes.clear();
+    }
+
+    /**
+     * Return the metrics of each route, sorted by route. Times are in microseconds except for the duration in milliseconds.
+     * See {@link RouteLatencyRegistry} for the latency percentiles.
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new TreeMap<>();
+        routes.forEach((route, metrics) -> report.put(route, metrics.getReport()));
+        return report;
+    }
+
+    private static class RouteMetrics {
+
+        private final LongAdder requestCount = new LongAdder();
+
+        private final LongAdder duration = new LongAdder();
+
+        private final LongAdder sessionCount = new LongAdder();
+
+        private final LongAdder statementCount = new LongAdder();
+
+        private final LongAdder connectionWaitTime = new LongAdder();
+
+        private final LongAdder flushTime = new LongAdder();
+
+        private final LongAdder flushEntityCount = new LongAdder();
+
+        void record(long duration, RequestMetrics requestMetrics) {
+            this.requestCount.increment();
+            this.duration.add(duration);
+            this.sessionCount.add(requestMetrics.getSessionCount());
+            this.statementCount.add(requestMetrics.getStatementCount());
+            this.connectionWaitTime.add(requestMetrics.getConnectionWaitTime());
+            this.flushTime.add(requestMetrics.getFlushTime());
+            this.flushEntityCount.add(requestMetrics.getFlushEntityCount());
+        }
+
+        Map<String, Object> getReport() {
+            long requests = Math.max(1, requestCount.sum());
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("requests", requestCount.sum());
+            report.put("totalDurationMs", duration.sum() / 1_000_000);
+            report.put("avgDurationMs", duration.sum() / 1_000_000 / requests);
+            report.put("sessions", sessionCount.sum());
+            report.put("statements", statementCount.sum());
+            report.put("avgStatements", Math.round(statementCount.sum() * 100.0 / requests) / 100.0);
+            report.put("connectionWaitTime", connectionWaitTime.sum() / 1000);
+            report.put("avgConnectionWaitTime", connectionWaitTime.sum() / 1000 / requests);
+            report.put("flushTime", flushTime.sum() / 1000);
+            report.put("avgFlushTime", flushTime.sum() / 1000 / requests);
+            report.put("flushedEntities", flushEntityCount.sum());
+            return report;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decide which Hibernate sessions have their detailed metrics logged, so that the session logger can stay enabled
+ * in production while only paying for the interesting sessions:
+ * <ul>
+ * <li>head sampling: 1 in N sessions, decided when the session is opened</li>
+ * <li>tail triggering: the sessions exceeding a threshold on the statement count, JDBC time or flushed entities</li>
+ * <li>rate limiting: at most a given number of logged sessions per route and per second</li>
+ * </ul>
+ */
+public class SessionLogPolicy {
+
+    public static final int SAMPLED = 1;
+
+    public static final int SLOW_STATEMENT_COUNT = 1 << 1;
+
+    public static final int SLOW_JDBC_TIME = 1 << 2;
+
+    public static final int SLOW_FLUSH_ENTITY_COUNT = 1 << 3;
+
+    private static final SessionLogPolicy INSTANCE = new SessionLogPolicy();
+
+    private static final String NO_ROUTE = "NONE";
+
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    private final LongAdder sampledCount = new LongAdder();
+
+    private final LongAdder triggeredCount = new LongAdder();
+
+    private final LongAdder rateLimitedCount = new LongAdder();
+
+    private volatile int sampleRate = 1;
+
+    private volatile long statementCountThreshold;
+
+    private volatile long jdbcTimeThreshold;
+
+    private volatile long flushEntityCountThreshold;
+
+    private volatile int maxPerRoutePerSecond;
+
+    private SessionLogPolicy() {
+    }
+
+    public static SessionLogPolicy getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the head sampling rate: 1 to log all the sessions, N to log 1 in N sessions, 0 to disable the sampling.
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Set the tail triggering thresholds, a threshold of 0 is disabled.
+     *
+     * @param jdbcTimeThreshold in nanoseconds
+     */
+    public void setThresholds(long statementCountThreshold, long jdbcTimeThreshold, long flushEntityCountThreshold) {
+        this.statementCountThreshold = statementCountThreshold;
+        this.jdbcTimeThreshold = jdbcTimeThreshold;
+        this.flushEntityCountThreshold = flushEntityCountThreshold;
+    }
+
+    /**
+     * Set the maximum number of logged sessions per route and per second, 0 for no limit.
+     */
+    public void setMaxPerRoutePerSecond(int maxPerRoutePerSecond) {
+        this.maxPerRoutePerSecond = maxPerRoutePerSecond;
+    }
+
+    /**
+     * Decide if a new session is sampled.
+     */
+    public boolean sample() {
+        int rate = sampleRate;
+        return rate == 1 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) == 0);
+    }
+
+    /**
+     * Return the reasons to log an ending session, as a combination of flags, or 0 if it should not be logged.
+     *
+     * @param jdbcTime in nanoseconds
+     */
+    public int getReasons(boolean sampled, long statementCount, long jdbcTime, long flushEntityCount) {
+        int reasons = sampled ? SAMPLED : 0;
+        if (statementCountThreshold > 0 && statementCount > statementCountThreshold) {
+            reasons |= SLOW_STATEMENT_COUNT;
+        }
+        if (jdbcTimeThreshold > 0 && jdbcTime > jdbcTimeThreshold) {
+            reasons |= SLOW_JDBC_TIME;
+        }
+        if (flushEntityCountThreshold > 0 && flushEntityCount > flushEntityCountThreshold) {
+            reasons |= SLOW_FLUSH_ENTITY_COUNT;
+        }
+        if (reasons == SAMPLED) {
+            sampledCount.increment();
+        } else if (reasons != 0) {
+            triggeredCount.increment();
+        }
+        return reasons;
+    }
+
+    /**
+     * Acquire the permission to log a session of the given route, according to the rate limit.
+     */
+    public boolean tryAcquire(String route) {
+        int max = maxPerRoutePerSecond;
+        if (max <= 0) {
+            return true;
+        }
+        String key = route != null ? route : NO_ROUTE;
+        RateLimiter rateLimiter = rateLimiters.get(key);
+        if (rateLimiter == null) {
+            rateLimiter = rateLimiters.computeIfAbsent(key, k -> new RateLimiter());
+        }
+        if (rateLimiter.tryAcquire(max)) {
+            return true;
+        }
+        rateLimitedCount.increment();
+        return false;
+    }
+
+    public static String describeReasons(int reasons) {
+        StringBuilder builder = new StringBuilder();
+        appendReason(builder, reasons, SAMPLED, "sampled");
+        appendReason(builder, reasons, SLOW_STATEMENT_COUNT, "statement count");
+        appendReason(builder, reasons, SLOW_JDBC_TIME, "JDBC time");
+        appendReason(builder, reasons, SLOW_FLUSH_ENTITY_COUNT, "flushed entities");
+        return builder.toString();
+    }
+
+    private static void appendReason(StringBuilder builder, int reasons, int reason, String label) {
+        if ((reasons & reason) != 0) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(label);
+        }
+    }
+
+    public void clear() {
+        sampledCount.reset();
+        triggeredCount.reset();
+        rateLimitedCount.reset();
+    }
+
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("sampleRate", sampleRate);
+        report.put("statementCountThreshold", statementCountThreshold);
+        report.put("jdbcTimeThreshold", jdbcTimeThreshold / 1_000_000);
+        report.put("flushEntityCountThreshold", flushEntityCountThreshold);
+        report.put("maxPerRoutePerSecond", maxPerRoutePerSecond);
+        report.put("sampledSessions", sampledCount.sum());
+        report.put("triggeredSessions", triggeredCount.sum());
+        report.put("rateLimitedSessions", rateLimitedCount.sum());
+        return report;
+    }
+
+    /**
+     * A fixed window rate limiter, the window being the current second.
+     */
+    private static class RateLimiter {
+
+        private final AtomicLong state = new AtomicLong();
+
+        boolean tryAcquire(int max) {
+            long second = System.currentTimeMillis() / 1000;
+            while (true) {
+                // The high bits contain the window and the low 16 bits the number of permits acquired in the window
+                long current = state.get();
+                long count = (current >>> 16) == second ? current & 0xFFFF : 0;
+                if (count >= Math.min(max, 0xFFFF)) {
+                    return false;
+                }
+                if (state.compareAndSet(current, (second << 16) | (count + 1))) {
+                    return true;
+                }
+            }
+        }
+    }
+}
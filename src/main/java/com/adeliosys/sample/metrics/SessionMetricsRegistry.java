@@ -0,0 +1,144 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide aggregation of the Hibernate session metrics.
+ * <p>
+ * Each session event listener merges its counters here when its session ends. The counters are striped
+ * and the histograms have a fixed size, so recording does not allocate nor contend between threads.
+ * The histograms contain the time spent in each phase per session, in nanoseconds, except the connection release
+ * histogram that contains the time of each release, since Hibernate ends the session before releasing its connection.
+ */
+public class SessionMetricsRegistry {
+
+    private static final SessionMetricsRegistry INSTANCE = new SessionMetricsRegistry();
+
+    private final LongAdder sessionCount = new LongAdder();
+
+    private final LongAdder[] counts = new LongAdder[SessionPhase.values().length];
+
+    private final LongAdder[] times = new LongAdder[SessionPhase.values().length];
+
+    private final Histogram[] histograms = new Histogram[SessionPhase.values().length];
+
+    private final LongAdder flushEntityCount = new LongAdder();
+
+    private final LongAdder flushCollectionCount = new LongAdder();
+
+    private volatile long startTime = System.nanoTime();
+
+    private SessionMetricsRegistry() {
+        for (int i = 0; i < histograms.length; i++) {
+            counts[i] = new LongAdder();
+            times[i] = new LongAdder();
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public static SessionMetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public void recordSession() {
+        sessionCount.increment();
+    }
+
+    /**
+     * Record the number of operations of a session for a given phase and their total duration in nanoseconds.
+     */
+    public void record(SessionPhase phase, long count, long time) {
+        if (count <= 0) {
+            return;
+        }
+        int index = phase.ordinal();
+        counts[index].add(count);
+        times[index].add(time);
+        histograms[index].record(time);
+    }
+
+    public void recordFlushedItems(long entityCount, long collectionCount) {
+        flushEntityCount.add(entityCount);
+        flushCollectionCount.add(collectionCount);
+    }
+
+    /**
+     * Copy the cumulative counters into an array, without allocating: the sessions, flushed entities and flushed
+     * collections, then the count and total time of each phase. Also copy the histogram counts of each phase.
+     */
+    public void copyTo(long[] values, int offset, long[][] histogramCounts) {
+        values[offset] = sessionCount.sum();
+        values[offset + 1] = flushEntityCount.sum();
+        values[offset + 2] = flushCollectionCount.sum();
+        for (int i = 0; i < histograms.length; i++) {
+            values[offset + 3 + 2 * i] = counts[i].sum();
+            values[offset + 4 + 2 * i] = times[i].sum();
+            histograms[i].copyCounts(histogramCounts[i]);
+        }
+    }
+
+    /**
+     * Add the session counters and the per session histogram of each phase to a statistics snapshot.
+     */
+    public void addTo(StatisticsSnapshot snapshot) {
+        snapshot.addCounter("sessions", sessionCount.sum());
+        snapshot.addCounter("flushedEntities", flushEntityCount.sum());
+        snapshot.addCounter("flushedCollections", flushCollectionCount.sum());
+        for (SessionPhase phase : SessionPhase.values()) {
+            int index = phase.ordinal();
+            snapshot.addCounter(phase.getLabel() + "Count", counts[index].sum());
+            snapshot.addCounter(phase.getLabel() + "Time", times[index].sum());
+            snapshot.addHistogram(StatisticsSnapshot.PHASES, phase.getLabel(), histograms[index].snapshot());
+        }
+    }
+
+    public void clear() {
+        sessionCount.reset();
+        for (int i = 0; i < histograms.length; i++) {
+            counts[i].reset();
+            times[i].reset();
+            histograms[i].reset();
+        }
+        flushEntityCount.reset();
+        flushCollectionCount.reset();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Return the totals, rates and per session percentiles of each phase. Times are in microseconds.
+     */
+    public Map<String, Object> getReport() {
+        double elapsedSeconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("elapsedSeconds", Math.round(elapsedSeconds));
+        report.put("sessions", sessionCount.sum());
+        report.put("sessionsPerSecond", round(sessionCount.sum() / elapsedSeconds));
+        report.put("flushedEntities", flushEntityCount.sum());
+        report.put("flushedCollections", flushCollectionCount.sum());
+
+        for (SessionPhase phase : SessionPhase.values()) {
+            int index = phase.ordinal();
+            HistogramSnapshot snapshot = histograms[index].snapshot();
+
+            Map<String, Object> phaseReport = new LinkedHashMap<>();
+            phaseReport.put("count", counts[index].sum());
+            phaseReport.put("perSecond", round(counts[index].sum() / elapsedSeconds));
+            phaseReport.put("totalTime", times[index].sum() / 1000);
+            phaseReport.put("sessions", snapshot.getCount());
+            phaseReport.put("p50", snapshot.getValueAtPercentile(50) / 1000);
+            phaseReport.put("p99", snapshot.getValueAtPercentile(99) / 1000);
+            phaseReport.put("p999", snapshot.getValueAtPercentile(99.9) / 1000);
+            phaseReport.put("max", snapshot.getMax() / 1000);
+            report.put(phase.getLabel(), phaseReport);
+        }
+
+        return report;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
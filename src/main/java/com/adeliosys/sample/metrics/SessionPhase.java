@@ -0,0 +1,28 @@
+package com.adeliosys.sample.metrics;
+
+/**
+ * The Hibernate session phases measured by the custom session event listener.
+ */
+public enum SessionPhase {
+
+    CONNECTION_ACQUISITION("connectionAcquisition"),
+    CONNECTION_RELEASE("connectionRelease"),
+    STATEMENT_PREPARE("statementPrepare"),
+    STATEMENT_EXECUTE("statementExecute"),
+    BATCH_EXECUTE("batchExecute"),
+    CACHE_PUT("cachePut"),
+    CACHE_HIT("cacheHit"),
+    CACHE_MISS("cacheMiss"),
+    FLUSH("flush"),
+    PARTIAL_FLUSH("partialFlush");
+
+    private final String label;
+
+    SessionPhase(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,62 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed size ring buffer of timestamped snapshots, each snapshot being an array of long values.
+ * <p>
+ * All snapshots are stored in a single preallocated primitive array, so adding a snapshot does not allocate.
+ * When the buffer is full, the oldest snapshot is overwritten.
+ */
+public class SnapshotRingBuffer {
+
+    private final int capacity;
+
+    private final int width;
+
+    /**
+     * The snapshots, each one using width + 1 slots: the timestamp followed by the values.
+     */
+    private final long[] slots;
+
+    private int next;
+
+    private int size;
+
+    public SnapshotRingBuffer(int capacity, int width) {
+        this.capacity = capacity;
+        this.width = width;
+        this.slots = new long[capacity * (width + 1)];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public synchronized void add(long timestamp, long[] values) {
+        int offset = next * (width + 1);
+        slots[offset] = timestamp;
+        System.arraycopy(values, 0, slots, offset + 1, width);
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+    }
+
+    /**
+     * Return a copy of the snapshots whose timestamp is greater or equal to a given timestamp, oldest first.
+     * Each snapshot is an array containing the timestamp followed by the values.
+     */
+    public synchronized List<long[]> getSnapshotsSince(long timestamp) {
+        List<long[]> snapshots = new ArrayList<>();
+        for (int i = size; i > 0; i--) {
+            int index = Math.floorMod(next - i, capacity);
+            int offset = index * (width + 1);
+            if (slots[offset] >= timestamp) {
+                long[] snapshot = new long[width + 1];
+                System.arraycopy(slots, offset, snapshot, 0, width + 1);
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+}
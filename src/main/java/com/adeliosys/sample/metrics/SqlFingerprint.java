@@ -0,0 +1,174 @@
+package com.adeliosys.sample.metrics;
+
+/**
+ * Normalize SQL or HQL statements into fingerprints that do not depend on literal values.
+ * <p>
+ * String and numeric literals are replaced by "?", lists of values such as IN lists are collapsed into a single "?",
+ * whitespaces are collapsed and everything outside of quoted identifiers is lowercased.
+ * For example "SELECT * FROM author WHERE id IN (1, 2, 3)" and "select * from author where id in (?,?)"
+ * both become "select * from author where id in (?)".
+ */
+public final class SqlFingerprint {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SqlFingerprint() {
+    }
+
+    /**
+     * Return the normalized text of a statement.
+     */
+    public static String normalize(String sql) {
+        StringBuilder buffer = new StringBuilder(sql.length());
+        scan(sql, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Return a 64 bits hash of the normalized text of a statement, without allocating it.
+     */
+    public static long hash(String sql) {
+        return scan(sql, null);
+    }
+
+    /**
+     * Scan a statement, hash the normalized characters and optionally append them to a buffer.
+     */
+    private static long scan(String sql, StringBuilder buffer) {
+        long hash = FNV_OFFSET_BASIS;
+        char previous = ' ';
+        int length = sql.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = sql.charAt(i);
+            char emitted;
+
+            int valueEnd = skipValue(sql, i, previous);
+            if (valueEnd > 0) {
+                emitted = '?';
+                i = skipFollowingValues(sql, valueEnd);
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (previous == ' ' || i >= length) {
+                    // Skip leading, trailing and repeated whitespaces
+                    continue;
+                }
+                emitted = ' ';
+            } else if (c == '"' || c == '`') {
+                // Keep quoted identifiers as is
+                int end = sql.indexOf(c, i + 1);
+                end = end < 0 ? length : end + 1;
+                for (int j = i; j < end; j++) {
+                    hash = (hash ^ sql.charAt(j)) * FNV_PRIME;
+                }
+                if (buffer != null) {
+                    buffer.append(sql, i, end);
+                }
+                previous = c;
+                i = end;
+                continue;
+            } else {
+                emitted = Character.toLowerCase(c);
+                i++;
+            }
+
+            hash = (hash ^ emitted) * FNV_PRIME;
+            if (buffer != null) {
+                buffer.append(emitted);
+            }
+            previous = emitted;
+        }
+
+        return hash;
+    }
+
+    /**
+     * If a value (a parameter placeholder or a literal) starts at a given position, return the position after it,
+     * else return -1.
+     */
+    private static int skipValue(String sql, int i, char previous) {
+        int length = sql.length();
+        char c = sql.charAt(i);
+
+        if (c == '?') {
+            // Also skip JDBC style ordinal parameters such as ?1
+            i++;
+            while (i < length && Character.isDigit(sql.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        if (c == '\'') {
+            i++;
+            while (i < length) {
+                if (sql.charAt(i) == '\'') {
+                    if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                        // Escaped quote
+                        i += 2;
+                        continue;
+                    }
+                    return i + 1;
+                }
+                i++;
+            }
+            return length;
+        }
+
+        if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(sql.charAt(i + 1)) && previous != ':') {
+            // Named parameter
+            i++;
+            while (i < length && Character.isJavaIdentifierPart(sql.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        if (Character.isDigit(c) && !isIdentifierPart(previous)) {
+            // Numeric literal, but not a digit inside an identifier such as "a1_0"
+            while (i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                i++;
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Skip the values following a value and separated by commas, such as in IN lists.
+     */
+    private static int skipFollowingValues(String sql, int i) {
+        int length = sql.length();
+        while (true) {
+            int j = i;
+            while (j < length && Character.isWhitespace(sql.charAt(j))) {
+                j++;
+            }
+            if (j >= length || sql.charAt(j) != ',') {
+                return i;
+            }
+            j++;
+            while (j < length && Character.isWhitespace(sql.charAt(j))) {
+                j++;
+            }
+            if (j >= length) {
+                return i;
+            }
+            int valueEnd = skipValue(sql, j, ',');
+            if (valueEnd < 0) {
+                return i;
+            }
+            i = valueEnd;
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
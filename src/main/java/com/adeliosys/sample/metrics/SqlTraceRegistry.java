@@ -0,0 +1,152 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Process wide statistics of the JDBC statements executed through the tracing data source, by SQL fingerprint.
+ * <p>
+ * The most executed fingerprints are tracked by a {@link StripedHeavyHittersSketch}, and the slowest executions
+ * are kept as samples with their bind parameter count, row count and route. Both structures are bounded.
+ * Times are in nanoseconds.
+ */
+public class SqlTraceRegistry {
+
+    private static final SqlTraceRegistry INSTANCE = new SqlTraceRegistry();
+
+    private static final int FINGERPRINT_CAPACITY = 200;
+
+    private static final int SLOWEST_CAPACITY = 50;
+
+    private final StripedHeavyHittersSketch fingerprints = new StripedHeavyHittersSketch(FINGERPRINT_CAPACITY);
+
+    private final PriorityQueue<Sample> slowest = new PriorityQueue<>(Comparator.comparingLong(Sample::time));
+
+    /**
+     * The time of the fastest kept sample once the samples are full, so that most executions skip the lock.
+     */
+    private volatile long slowestThreshold;
+
+    private SqlTraceRegistry() {
+    }
+
+    public static SqlTraceRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record the execution of a statement.
+     *
+     * @param rows       the number of returned or updated rows
+     * @param bindCount  the number of bind parameters, per statement of a batch
+     * @param batchCount the number of statements of a batch, 0 if not a batch
+     */
+    public void record(String sql, long time, long rows, int bindCount, int batchCount) {
+        if (sql == null) {
+            return;
+        }
+        fingerprints.record(sql, time, rows);
+
+        if (time > slowestThreshold) {
+            RequestMetrics requestMetrics = RequestMetrics.current();
+            String route = requestMetrics != null ? requestMetrics.getRoute() : null;
+            addSlowest(new Sample(sql, time, rows, bindCount, batchCount, route, System.currentTimeMillis()));
+        }
+    }
+
+    private synchronized void addSlowest(Sample sample) {
+        if (slowest.size() >= SLOWEST_CAPACITY) {
+            if (sample.time <= slowest.peek().time) {
+                return;
+            }
+            slowest.poll();
+        }
+        slowest.add(sample);
+        if (slowest.size() >= SLOWEST_CAPACITY) {
+            slowestThreshold = slowest.peek().time;
+        }
+    }
+
+    public synchronized void clear() {
+        fingerprints.clear();
+        slowest.clear();
+        slowestThreshold = 0;
+    }
+
+    /**
+     * Return the most executed fingerprints, the fingerprints with the highest total time and the slowest executions.
+     * Times are in microseconds.
+     */
+    public Map<String, Object> getReport(int top) {
+        if (top < 1) {
+            throw new IllegalArgumentException("The top must be positive");
+        }
+
+        List<HeavyHittersSketch.Entry> entries = fingerprints.getEntries();
+
+        entries.sort(Comparator.comparingLong(HeavyHittersSketch.Entry::executions).reversed());
+        List<Map<String, Object>> mostExecuted = getEntryReports(entries, top);
+
+        entries.sort(Comparator.comparingLong(HeavyHittersSketch.Entry::totalTime).reversed());
+        List<Map<String, Object>> mostTime = getEntryReports(entries, top);
+
+        List<Sample> samples;
+        synchronized (this) {
+            samples = new ArrayList<>(slowest);
+        }
+        samples.sort(Comparator.comparingLong(Sample::time).reversed());
+        List<Map<String, Object>> slowestReports = new ArrayList<>();
+        for (Sample sample : samples.subList(0, Math.min(top, samples.size()))) {
+            slowestReports.add(sample.getReport());
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mostExecuted", mostExecuted);
+        report.put("mostTime", mostTime);
+        report.put("slowest", slowestReports);
+        report.put("other", getEntryReport(fingerprints.getOther()));
+        return report;
+    }
+
+    private static List<Map<String, Object>> getEntryReports(List<HeavyHittersSketch.Entry> entries, int top) {
+        List<Map<String, Object>> reports = new ArrayList<>();
+        for (HeavyHittersSketch.Entry entry : entries.subList(0, Math.min(top, entries.size()))) {
+            reports.add(getEntryReport(entry));
+        }
+        return reports;
+    }
+
+    private static Map<String, Object> getEntryReport(HeavyHittersSketch.Entry entry) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("fingerprint", entry.getFingerprint());
+        report.put("executions", entry.executions());
+        report.put("error", entry.error());
+        report.put("totalTime", entry.totalTime() / 1000);
+        report.put("avgTime", entry.getAvgTime() / 1000);
+        report.put("maxTime", entry.maxTime() / 1000);
+        report.put("rows", entry.rows());
+        return report;
+    }
+
+    /**
+     * A slow execution of a statement.
+     */
+    private record Sample(String sql, long time, long rows, int bindCount, int batchCount, String route, long timestamp) {
+
+        Map<String, Object> getReport() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("fingerprint", SqlFingerprint.normalize(sql));
+            report.put("time", time / 1000);
+            report.put("rows", rows);
+            report.put("bindParameters", bindCount);
+            report.put("batchSize", batchCount);
+            report.put("route", route);
+            report.put("timestamp", timestamp);
+            return report;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.adeliosys.sample.metrics;
+
+/**
+ * Count the executions of each statement fingerprint within a single Hibernate session, to detect N+1 selects.
+ * <p>
+ * The number of tracked fingerprints is bounded, so the memory footprint of a session stays small
+ * even for long batch sessions. The statement that triggered an entity or collection load is associated
+ * to the corresponding role, as published by the Hibernate load event listeners.
+ */
+public class StatementTracker {
+
+    private static final int MAX_FINGERPRINTS = 32;
+
+    private static final ThreadLocal<String> CURRENT_ROLE = new ThreadLocal<>();
+
+    private final long[] hashes = new long[MAX_FINGERPRINTS];
+
+    private final int[] counts = new int[MAX_FINGERPRINTS];
+
+    private final String[] statements = new String[MAX_FINGERPRINTS];
+
+    private final String[] roles = new String[MAX_FINGERPRINTS];
+
+    private int size;
+
+    private int untrackedCount;
+
+    /**
+     * Set the entity name or collection role being loaded by the current thread, or null when the load is complete.
+     */
+    public static void setCurrentRole(String role) {
+        CURRENT_ROLE.set(role);
+    }
+
+    public void record(String sql) {
+        long hash = SqlFingerprint.hash(sql);
+        String role = CURRENT_ROLE.get();
+        if (role != null) {
+            // A load executes a single statement
+            CURRENT_ROLE.set(null);
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (hashes[i] == hash) {
+                counts[i]++;
+                if (roles[i] == null) {
+                    roles[i] = role;
+                }
+                return;
+            }
+        }
+
+        if (size >= MAX_FINGERPRINTS) {
+            untrackedCount++;
+            return;
+        }
+
+        hashes[size] = hash;
+        counts[size] = 1;
+        statements[size] = sql;
+        roles[size] = role;
+        size++;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHash(int index) {
+        return hashes[index];
+    }
+
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Return a raw statement of a fingerprint, use {@link SqlFingerprint#normalize(String)} to get the fingerprint.
+     */
+    public String getStatement(int index) {
+        return statements[index];
+    }
+
+    public String getRole(int index) {
+        return roles[index];
+    }
+
+    /**
+     * Return the number of executed statements that could not be tracked because too many fingerprints were seen.
+     */
+    public int getUntrackedCount() {
+        return untrackedCount;
+    }
+}
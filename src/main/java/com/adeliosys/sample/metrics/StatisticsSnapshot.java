@@ -0,0 +1,201 @@
+package com.adeliosys.sample.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A mergeable copy of the statistics of one or several nodes: cumulative counters and histograms grouped
+ * by kind (query execution times, entity load times, etc.).
+ * <p>
+ * Unlike min, average and max values, counters and histogram buckets can be added, so merging the snapshots
+ * of several nodes gives exact fleet-wide rates and the same percentiles as if all the values had been recorded
+ * by a single node. Gauges (such as the connection pool ones) are also added, giving the fleet totals.
+ * <p>
+ * The binary format is versioned: magic, version, node count, timestamp, node name, the counters,
+ * then the groups of histograms with only their non-empty buckets. Strings are UTF-8 with an int length.
+ */
+public class StatisticsSnapshot {
+
+    static final int MAGIC = 0x48535353;
+
+    /**
+     * The version of the format, incremented when the layout changes. Older versions can still be read.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Query execution times in ms, by query string.
+     */
+    public static final String QUERIES = "queries";
+
+    /**
+     * Query returned rows, by query string.
+     */
+    public static final String QUERY_ROWS = "queryRows";
+
+    /**
+     * Entity load times in ns, by entity name.
+     */
+    public static final String ENTITIES = "entities";
+
+    /**
+     * Collection initialization times in ns, by collection role.
+     */
+    public static final String COLLECTIONS = "collections";
+
+    /**
+     * Per session times in ns, by session phase.
+     */
+    public static final String PHASES = "phases";
+
+    private final String node;
+
+    private final long timestamp;
+
+    private final int nodeCount;
+
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    private final Map<String, Map<String, HistogramSnapshot>> histograms = new LinkedHashMap<>();
+
+    public StatisticsSnapshot(String node, long timestamp) {
+        this(node, timestamp, 1);
+    }
+
+    private StatisticsSnapshot(String node, long timestamp, int nodeCount) {
+        this.node = node;
+        this.timestamp = timestamp;
+        this.nodeCount = nodeCount;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Return the histograms of a group, by name.
+     */
+    public Map<String, HistogramSnapshot> getHistograms(String group) {
+        return Collections.unmodifiableMap(histograms.getOrDefault(group, Collections.emptyMap()));
+    }
+
+    public void addCounter(String name, long value) {
+        counters.merge(name, value, Long::sum);
+    }
+
+    public void addHistogram(String group, String name, HistogramSnapshot histogram) {
+        histograms.computeIfAbsent(group, k -> new TreeMap<>()).merge(name, histogram, HistogramSnapshot::merge);
+    }
+
+    /**
+     * Return a new snapshot combining this one and another one.
+     */
+    public StatisticsSnapshot merge(StatisticsSnapshot other) {
+        StatisticsSnapshot merged = new StatisticsSnapshot("merged", Math.max(timestamp, other.timestamp),
+                nodeCount + other.nodeCount);
+        for (StatisticsSnapshot snapshot : new StatisticsSnapshot[]{this, other}) {
+            snapshot.counters.forEach(merged::addCounter);
+            snapshot.histograms.forEach((group, groupHistograms) ->
+                    groupHistograms.forEach((name, histogram) -> merged.addHistogram(group, name, histogram)));
+        }
+        return merged;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeShort(VERSION);
+            output.writeInt(nodeCount);
+            output.writeLong(timestamp);
+            writeString(output, node);
+
+            output.writeInt(counters.size());
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                writeString(output, entry.getKey());
+                output.writeLong(entry.getValue());
+            }
+
+            output.writeInt(histograms.size());
+            for (Map.Entry<String, Map<String, HistogramSnapshot>> group : histograms.entrySet()) {
+                writeString(output, group.getKey());
+                output.writeInt(group.getValue().size());
+                for (Map.Entry<String, HistogramSnapshot> entry : group.getValue().entrySet()) {
+                    writeString(output, entry.getKey());
+                    entry.getValue().writeTo(output);
+                }
+            }
+        } catch (IOException e) {
+            // Cannot happen with an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a snapshot written by {@link #toBytes()}, by this version or an older one.
+     */
+    public static StatisticsSnapshot fromBytes(byte[] bytes) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a statistics snapshot");
+            }
+            int version = input.readUnsignedShort();
+            if (version > VERSION) {
+                throw new IOException("Unsupported statistics snapshot version " + version + ", expecting at most " + VERSION);
+            }
+            int nodeCount = input.readInt();
+            long timestamp = input.readLong();
+            StatisticsSnapshot snapshot = new StatisticsSnapshot(readString(input), timestamp, nodeCount);
+
+            int counterCount = input.readInt();
+            for (int i = 0; i < counterCount; i++) {
+                snapshot.addCounter(readString(input), input.readLong());
+            }
+
+            int groupCount = input.readInt();
+            for (int i = 0; i < groupCount; i++) {
+                String group = readString(input);
+                int histogramCount = input.readInt();
+                for (int j = 0; j < histogramCount; j++) {
+                    snapshot.addHistogram(group, readString(input), HistogramSnapshot.readFrom(input));
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > input.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        return new String(input.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package com.adeliosys.sample.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link HeavyHittersSketch} split into stripes selected by thread, so that concurrent writers rarely
+ * compete for the same lock. The stripes are merged when reporting: the statistics of a fingerprint
+ * tracked by several stripes are added, which keeps the Space-Saving error bounds.
+ */
+public class StripedHeavyHittersSketch {
+
+    private static final int MAX_STRIPES = 8;
+
+    private final HeavyHittersSketch[] stripes;
+
+    /**
+     * @param capacity the number of fingerprints tracked by each stripe
+     */
+    public StripedHeavyHittersSketch(int capacity) {
+        int count = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES) * 2 - 1);
+        stripes = new HeavyHittersSketch[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new HeavyHittersSketch(capacity);
+        }
+    }
+
+    public void record(String statement, long time, long rowCount) {
+        record(SqlFingerprint.hash(statement), statement, time, rowCount);
+    }
+
+    /**
+     * Record the execution of a statement, whose fingerprint hash was computed by {@link SqlFingerprint#hash(String)}.
+     */
+    public void record(long hash, String statement, long time, long rowCount) {
+        long id = Thread.currentThread().getId();
+        stripes[(int) (id ^ (id >>> 16)) & (stripes.length - 1)].record(hash, statement, time, rowCount);
+    }
+
+    public void clear() {
+        for (HeavyHittersSketch stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * Return the tracked entries merged across stripes, in no particular order.
+     */
+    public List<HeavyHittersSketch.Entry> getEntries() {
+        if (stripes.length == 1) {
+            return stripes[0].getEntries();
+        }
+
+        Map<Long, HeavyHittersSketch.Entry> merged = new HashMap<>();
+        for (HeavyHittersSketch stripe : stripes) {
+            for (HeavyHittersSketch.Entry entry : stripe.getEntries()) {
+                merged.merge(SqlFingerprint.hash(entry.statement()), entry, StripedHeavyHittersSketch::merge);
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Return the aggregated statistics of the entries evicted from any stripe.
+     */
+    public HeavyHittersSketch.Entry getOther() {
+        HeavyHittersSketch.Entry other = stripes[0].getOther();
+        for (int i = 1; i < stripes.length; i++) {
+            other = merge(other, stripes[i].getOther());
+        }
+        return other;
+    }
+
+    private static HeavyHittersSketch.Entry merge(HeavyHittersSketch.Entry a, HeavyHittersSketch.Entry b) {
+        return new HeavyHittersSketch.Entry(a.statement(), a.executions() + b.executions(), a.error() + b.error(),
+                a.totalTime() + b.totalTime(), Math.max(a.maxTime(), b.maxTime()), a.rows() + b.rows());
+    }
+}
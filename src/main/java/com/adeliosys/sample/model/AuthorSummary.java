@@ -0,0 +1,7 @@
+package com.adeliosys.sample.model;
+
+/**
+ * Projection of an author, used to list authors without loading the entities in the persistence context.
+ */
+public record AuthorSummary(Long id, String name) {
+}
@@ -1,11 +1,41 @@
 package com.adeliosys.sample.repository;
 
 import com.adeliosys.sample.model.Author;
+import com.adeliosys.sample.model.AuthorSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import jakarta.persistence.QueryHint;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.HibernateHints.HINT_CACHE_REGION;
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 public interface AuthorRepository extends JpaRepository<Author, Long> {
 
-    List<Author> findByName(String name);
+    /**
+     * Return a page of authors with an id greater than a given one, i.e. use keyset pagination.
+     */
+    @Query("select new com.adeliosys.sample.model.AuthorSummary(a.id, a.name) from Author a where a.id > :after order by a.id")
+    List<AuthorSummary> findSummaries(@Param("after") long after, Pageable pageable);
+
+    @QueryHints({@QueryHint(name = HINT_CACHEABLE, value = "true"), @QueryHint(name = HINT_CACHE_REGION, value = "author-by-name")})
+    @Query("select new com.adeliosys.sample.model.AuthorSummary(a.id, a.name) from Author a where a.name = :name and a.id > :after order by a.id")
+    List<AuthorSummary> findSummariesByName(@Param("name") String name, @Param("after") long after, Pageable pageable);
+
+    /**
+     * Return all authors as a forward only stream, that must be closed and consumed within a transaction.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new com.adeliosys.sample.model.AuthorSummary(a.id, a.name) from Author a order by a.id")
+    Stream<AuthorSummary> streamSummaries();
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new com.adeliosys.sample.model.AuthorSummary(a.id, a.name) from Author a where a.name = :name order by a.id")
+    Stream<AuthorSummary> streamSummariesByName(@Param("name") String name);
 }